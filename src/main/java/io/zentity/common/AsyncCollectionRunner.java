@@ -19,10 +19,11 @@ package io.zentity.common;
 
 import org.elasticsearch.action.ActionListener;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Deque;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.Iterator;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
 /**
@@ -33,15 +34,18 @@ import java.util.stream.IntStream;
  */
 public class AsyncCollectionRunner<T, ResultT> {
     private final BiConsumer<T, ActionListener<ResultT>> itemRunner;
-    private final Deque<T> items;
+    private final Iterator<T> items;
     private final boolean failFast;
     private final int concurrency;
     private final int size;
 
     // state
     private IndexedGroupedActionListener<ResultT> groupedListener;
+    private BiConsumer<Integer, ResultT> resultConsumer;
+    private Consumer<Runnable> whenReady;
     private boolean hasStarted = false;
     private boolean hasFailure = false;
+    private int nextIndex = 0;
 
     public AsyncCollectionRunner(Collection<T> items, BiConsumer<T, ActionListener<ResultT>> itemRunner) {
         this(items, itemRunner, 1, false);
@@ -52,9 +56,22 @@ public class AsyncCollectionRunner<T, ResultT> {
     }
 
     public AsyncCollectionRunner(Collection<T> items, BiConsumer<T, ActionListener<ResultT>> itemRunner, int concurrency, boolean failFast) {
-        this.items = new ConcurrentLinkedDeque<>(items);
+        this(new ArrayList<>(items).iterator(), items.size(), itemRunner, concurrency, failFast);
+    }
+
+    /**
+     * Run the items of an iterator, which are consumed only as they are run.
+     *
+     * @param items       The items to run.
+     * @param size        The number of items that the iterator yields.
+     * @param itemRunner  Runs an item.
+     * @param concurrency The maximum number of items to run concurrently.
+     * @param failFast    Whether to stop running items after the first failure.
+     */
+    public AsyncCollectionRunner(Iterator<T> items, int size, BiConsumer<T, ActionListener<ResultT>> itemRunner, int concurrency, boolean failFast) {
+        this.items = items;
+        this.size = size;
         this.itemRunner = itemRunner;
-        this.size = items.size();
         this.concurrency = concurrency;
         this.failFast = failFast;
     }
@@ -70,15 +87,22 @@ public class AsyncCollectionRunner<T, ResultT> {
         final int resultIndex;
 
         synchronized (items) {
-            if (items.isEmpty()) {
+            if (!items.hasNext()) {
                 return;
             }
-            resultIndex = size - items.size();
-            nextItem = items.pop();
+            resultIndex = nextIndex++;
+            nextItem = items.next();
         }
 
         ActionListener<ResultT> resultListener = ActionListener.wrap(
-            (result) -> groupedListener.onResponse(resultIndex, result),
+            (result) -> {
+                if (resultConsumer == null) {
+                    groupedListener.onResponse(resultIndex, result);
+                } else {
+                    resultConsumer.accept(resultIndex, result);
+                    groupedListener.onResponse(resultIndex, null);
+                }
+            },
             (ex) -> {
                 hasFailure = true;
                 groupedListener.onFailure(ex);
@@ -87,7 +111,15 @@ public class AsyncCollectionRunner<T, ResultT> {
 
         itemRunner.accept(nextItem, ActionListener.runAfter(
             resultListener,
-            this::runNextItem));
+            this::runNextItemWhenReady));
+    }
+
+    private void runNextItemWhenReady() {
+        if (whenReady == null) {
+            runNextItem();
+        } else {
+            whenReady.accept(this::runNextItem);
+        }
     }
 
     /**
@@ -103,12 +135,38 @@ public class AsyncCollectionRunner<T, ResultT> {
             hasStarted = true;
         }
 
-        groupedListener = new IndexedGroupedActionListener<>(onComplete, items.size(), failFast);
+        groupedListener = new IndexedGroupedActionListener<>(onComplete, size, failFast);
 
         IntStream.range(0, concurrency)
             .forEach((i) -> runNextItem());
     }
 
+    /**
+     * Run the collection and pass each result to a consumer as soon as it is available, along with the index of its item.
+     * The results are passed in the order in which the items complete, and they are not retained by the runner.
+     *
+     * @param onResult   The result consumer.
+     * @param onComplete The listener for the completion of every item.
+     */
+    public void run(BiConsumer<Integer, ResultT> onResult, ActionListener<Void> onComplete) {
+        resultConsumer = onResult;
+        run(onComplete.map((ignored) -> null));
+    }
+
+    /**
+     * Run the collection and pass each result to a consumer as soon as it is available, along with the index of its item.
+     * The next item runs only once the consumer is ready for another result, so that a slow consumer pauses the runner
+     * instead of letting the results pile up.
+     *
+     * @param onResult   The result consumer.
+     * @param whenReady  Runs the given action once the consumer is ready for another result.
+     * @param onComplete The listener for the completion of every item.
+     */
+    public void run(BiConsumer<Integer, ResultT> onResult, Consumer<Runnable> whenReady, ActionListener<Void> onComplete) {
+        this.whenReady = whenReady;
+        run(onResult, onComplete);
+    }
+
     static class IndexedGroupedActionListener<ResultT> extends AbstractGroupedActionListener<ResultT> {
         IndexedGroupedActionListener(ActionListener<Collection<ResultT>> delegate, int groupSize, boolean failFast) {
             super(delegate, groupSize, failFast);
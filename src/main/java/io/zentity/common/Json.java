@@ -37,6 +37,16 @@ public class Json {
         return jsonStringFormat(value);
     }
 
+    /**
+     * Escape a value to be embedded in a JSON string, without surrounding it in quotes.
+     *
+     * @param value The value to escape.
+     * @return The escaped value.
+     */
+    public static String escapeString(String value) {
+        return jsonStringEscape(value);
+    }
+
     private static String jsonStringEscape(String value) {
         if (value == null)
             return "null"; // Prevents NullPointerException on STRING_ENCODER.quoteAsString()
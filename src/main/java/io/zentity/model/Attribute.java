@@ -41,6 +41,7 @@ public class Attribute {
     private Map<String, String> params = new TreeMap<>();
     private Double score;
     private String type = "string";
+    private int ordinal = -1;
     private boolean validateRunnable = false;
 
     public Attribute(String name, JsonNode json) throws ValidationException, JsonProcessingException {
@@ -81,6 +82,19 @@ public class Attribute {
         return this.nameFields;
     }
 
+    /**
+     * The position of this attribute among the attributes of its entity model, which are sorted by name.
+     *
+     * @return
+     */
+    public int ordinal() {
+        return this.ordinal;
+    }
+
+    void ordinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+
     public Map<String, String> params() {
         return this.params;
     }
@@ -23,6 +23,8 @@ import io.zentity.common.Patterns;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -38,6 +40,7 @@ public class Index {
     private final String name;
     private Map<String, IndexField> fields;
     private Map<String, Map<String, IndexField>> attributeIndexFieldsMap = new TreeMap<>();
+    private Set<String> sourceKeys = Collections.emptySet();
     private boolean validateRunnable = false;
 
     public Index(String name, JsonNode json) throws ValidationException {
@@ -78,6 +81,16 @@ public class Index {
         return this.fields;
     }
 
+    /**
+     * The keys of a document "_source" that can lead to the value of any index field, at any depth of the document.
+     * Any other key of the document can be skipped when extracting the values of the index fields.
+     *
+     * @return
+     */
+    public Set<String> sourceKeys() {
+        return this.sourceKeys;
+    }
+
     public void fields(JsonNode value) throws ValidationException {
         validateFields(value);
         Map<String, IndexField> fields = new TreeMap<>();
@@ -91,6 +104,7 @@ public class Index {
         }
         this.fields = fields;
         this.rebuildAttributeIndexFieldsMap();
+        this.rebuildSourceKeys();
     }
 
     private void validateName(String value) throws ValidationException {
@@ -142,6 +156,17 @@ public class Index {
         }
     }
 
+    /**
+     * Collect the compiled path keys of every index field.
+     */
+    private void rebuildSourceKeys() {
+        Set<String> sourceKeys = new HashSet<>();
+        for (IndexField indexField : this.fields.values())
+            for (String[] keys : indexField.pathKeys())
+                sourceKeys.addAll(Arrays.asList(keys));
+        this.sourceKeys = Collections.unmodifiableSet(sourceKeys);
+    }
+
     /**
      * Deserialize, validate, and hold the state of an index object of an entity model.
      * Expected structure of the json variable:
@@ -24,6 +24,7 @@ import io.zentity.common.Patterns;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -37,6 +38,8 @@ public class IndexField {
     private final String index;
     private final String name;
     private String[] path;
+    private String[][] pathKeys;
+    private int ordinal = -1;
     private String attribute;
     private String matcher;
     private Double quality;
@@ -88,6 +91,23 @@ public class IndexField {
         return this.path;
     }
 
+    public String[][] pathKeys() {
+        return this.pathKeys;
+    }
+
+    /**
+     * The position of this index field among the index fields of every index of its entity model.
+     *
+     * @return
+     */
+    public int ordinal() {
+        return this.ordinal;
+    }
+
+    void ordinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+
     public String attribute() {
         return this.attribute;
     }
@@ -108,6 +128,77 @@ public class IndexField {
 
     private void nameToPath(String name) {
         this.path = Patterns.PERIOD.split(name);
+        this.pathKeys = compilePathKeys(this.path);
+    }
+
+    /**
+     * Compile the keys that can hold each remaining part of a path in a document "_source".
+     * A key can contain periods, so the remaining part of the path from position i can be held by any of the keys
+     * in pathKeys[i], which join the next one or more names of the path in order of length.
+     *
+     * Example path: ["a", "b", "c"]
+     *
+     * Position  Keys
+     * --------  ------------------
+     * 0         "a", "a.b", "a.b.c"
+     * 1         "b", "b.c"
+     * 2         "c"
+     *
+     * @param path The path to an index field.
+     * @return
+     */
+    public static String[][] compilePathKeys(String[] path) {
+        String[][] pathKeys = new String[path.length][];
+        for (int i = 0; i < path.length; i++) {
+            pathKeys[i] = new String[path.length - i];
+            String key = path[i];
+            pathKeys[i][0] = key;
+            for (int j = i + 1; j < path.length; j++) {
+                key = key + "." + path[j];
+                pathKeys[i][j - i] = key;
+            }
+        }
+        return pathKeys;
+    }
+
+    /**
+     * Extract values from a document "_source" given the compiled keys of a path, starting at a position of the path.
+     * At each object, the shortest key that holds the remaining part of the path is followed.
+     * Arrays and object arrays are followed element by element.
+     *
+     * @param json     The "_source" of a document, or a value within it.
+     * @param pathKeys The compiled keys of the path.
+     * @param position The position of the path that the json is at.
+     * @param values   Any values found at the path of the document.
+     */
+    public static void extractValues(JsonNode json, String[][] pathKeys, int position, List<JsonNode> values) {
+        if (json.isObject()) {
+            if (position == pathKeys.length)
+                return;
+            String[] keys = pathKeys[position];
+            for (int j = 0; j < keys.length; j++) {
+                JsonNode jsonNext = json.get(keys[j]);
+                if (jsonNext != null) {
+                    extractValues(jsonNext, pathKeys, position + j + 1, values);
+                    return;
+                }
+            }
+        } else if (json.isArray()) {
+            for (JsonNode jsonNextItem : json)
+                extractValues(jsonNextItem, pathKeys, position, values);
+        } else {
+            values.add(json);
+        }
+    }
+
+    /**
+     * Extract the values of this index field from a document "_source".
+     *
+     * @param source The "_source" of a document.
+     * @param values Any values found at the path of this index field.
+     */
+    public void extractValues(JsonNode source, List<JsonNode> values) {
+        extractValues(source, this.pathKeys, 0, values);
     }
 
     public Double quality() {
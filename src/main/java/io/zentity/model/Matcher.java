@@ -23,8 +23,10 @@ import io.zentity.common.Json;
 import io.zentity.common.Patterns;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -39,6 +41,9 @@ public class Matcher {
 
     private final String name;
     private String clause;
+    private String[] clauseLiterals = new String[0];
+    private String[] clauseTokens = new String[0];
+    private String[] clauseVariables = new String[0];
     private Map<String, String> params = new TreeMap<>();
     private Double quality;
     private boolean validateRunnable = false;
@@ -88,6 +93,71 @@ public class Matcher {
         return variables;
     }
 
+    /**
+     * Compile a clause into the literal text between its {{ variable }} expressions and the variables themselves.
+     * Literal i precedes variable i, and the last literal follows the last variable. This lets the clause be populated
+     * in a single pass for each value instead of running a regular expression replacement for each variable.
+     *
+     * @param clause Clause serialized as a string.
+     */
+    private void compileClause(String clause) {
+        java.util.regex.Matcher m = Patterns.VARIABLE.matcher(clause);
+        List<String> literals = new ArrayList<>();
+        List<String> tokens = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        int end = 0;
+        while (m.find()) {
+            literals.add(clause.substring(end, m.start()));
+            tokens.add(m.group());
+            variables.add(m.group(1));
+            end = m.end();
+        }
+        literals.add(clause.substring(end));
+        this.clauseLiterals = literals.toArray(new String[0]);
+        this.clauseTokens = tokens.toArray(new String[0]);
+        this.clauseVariables = variables.toArray(new String[0]);
+    }
+
+    /**
+     * Populate the clause by replacing the {{ field }}, {{ value }}, and {{ params.PARAM_NAME }} variables.
+     * Values are inserted verbatim, so the value must already be escaped for the JSON string that it populates.
+     * Any other variables are left as they are.
+     *
+     * @param field  The name of the index field to populate in the clause.
+     * @param value  The value of the attribute to populate in the clause.
+     * @param params The values of the parameters (if any) to pass to the matcher.
+     * @return The populated clause.
+     * @throws ValidationException if the clause uses a parameter that has no value.
+     */
+    public String populate(String field, String value, Map<String, String> params) throws ValidationException {
+        StringBuilder sb = new StringBuilder(this.clause.length() + value.length());
+        for (int i = 0; i < this.clauseVariables.length; i++) {
+            sb.append(this.clauseLiterals[i]);
+            String variable = this.clauseVariables[i];
+            switch (variable) {
+                case "field":
+                    sb.append(field);
+                    break;
+                case "value":
+                    sb.append(value);
+                    break;
+                default:
+                    java.util.regex.Matcher m = Patterns.VARIABLE_PARAMS.matcher(variable);
+                    if (m.find()) {
+                        String var = m.group(1);
+                        if (!params.containsKey(var))
+                            throw new ValidationException("'matchers." + this.name + "' was given no value for '{{ " + variable + " }}'");
+                        sb.append(params.get(var));
+                    } else {
+                        sb.append(this.clauseTokens[i]);
+                    }
+                    break;
+            }
+        }
+        sb.append(this.clauseLiterals[this.clauseVariables.length]);
+        return sb.toString();
+    }
+
     public String name() {
         return this.name;
     }
@@ -112,6 +182,7 @@ public class Matcher {
         validateClause(value);
         this.clause = Json.MAPPER.writeValueAsString(value);
         this.variables = parseVariables(this.clause);
+        this.compileClause(this.clause);
     }
 
     public void quality(JsonNode value) throws ValidationException {
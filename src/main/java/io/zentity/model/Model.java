@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -36,17 +37,24 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.function.BiFunction;
+import java.util.function.Predicate;
 
+/**
+ * An entity model. The maps of attributes, indices, matchers, and resolvers are unmodifiable once the entity model
+ * has been parsed, so that one entity model can be shared by any number of resolution jobs. A resolution job that
+ * is scoped to some of the indices or resolvers uses a view of the entity model from {@link #scope}.
+ */
 public class Model {
 
     public static final Set<String> REQUIRED_FIELDS = new TreeSet<>(
             Arrays.asList("attributes", "resolvers", "matchers", "indices")
     );
 
-    private Map<String, Attribute> attributes = new TreeMap<>();
-    private Map<String, Index> indices = new TreeMap<>();
-    private Map<String, Matcher> matchers = new TreeMap<>();
-    private Map<String, Resolver> resolvers = new TreeMap<>();
+    private Map<String, Attribute> attributes = Collections.emptyMap();
+    private Map<String, Index> indices = Collections.emptyMap();
+    private Map<String, Matcher> matchers = Collections.emptyMap();
+    private Map<String, Resolver> resolvers = Collections.emptyMap();
+    private double[] attributeIdentityConfidenceScores = new double[0];
     private boolean validateRunnable = false;
 
     public Model(JsonNode json) throws ValidationException, JsonProcessingException {
@@ -67,6 +75,15 @@ public class Model {
         this.deserialize(json);
     }
 
+    private Model(Model model, Map<String, Index> indices, Map<String, Resolver> resolvers) {
+        this.attributes = model.attributes;
+        this.indices = indices;
+        this.matchers = model.matchers;
+        this.resolvers = resolvers;
+        this.attributeIdentityConfidenceScores = model.attributeIdentityConfidenceScores;
+        this.validateRunnable = model.validateRunnable;
+    }
+
     public Map<String, Attribute> attributes() {
         return this.attributes;
     }
@@ -83,6 +100,103 @@ public class Model {
         return this.resolvers;
     }
 
+    /**
+     * Create a view of the entity model that retains only the indices and resolvers whose names are accepted.
+     * The view shares the attributes, indices, matchers, and resolvers of this entity model instead of parsing them again.
+     *
+     * @param indices   Accepts the names of the indices to retain.
+     * @param resolvers Accepts the names of the resolvers to retain.
+     * @return The view of the entity model.
+     */
+    public Model scope(Predicate<String> indices, Predicate<String> resolvers) {
+        return new Model(this, retain(this.indices, indices), retain(this.resolvers, resolvers));
+    }
+
+    /**
+     * The number of index fields of every index of the entity model, which bounds the ordinals of the index fields.
+     *
+     * @return
+     */
+    public int indexFieldCount() {
+        return this.attributeIdentityConfidenceScores.length;
+    }
+
+    /**
+     * Get the attribute identity confidence score of a match on an index field, as adjusted by the quality scores of
+     * the matcher and the index field. The scores of every index field are calculated once when the entity model is
+     * parsed, so that resolution jobs can look them up by the ordinal of the index field.
+     *
+     * @param indexField An index field of this entity model.
+     * @return The attribute identity confidence score, or null if the attribute has no score.
+     */
+    public Double attributeIdentityConfidenceScore(IndexField indexField) {
+        double score = this.attributeIdentityConfidenceScores[indexField.ordinal()];
+        return Double.isNaN(score) ? null : score;
+    }
+
+    /**
+     * Calculate an attribute identity confidence score given a base score, a matcher quality score, and an index field
+     * quality score. Any quality score of 0.0 will lead to a division by zero. When that happens, set the output score
+     * to 0.0, because an attribute can give no confidence of an identity when any of the quality scores are 0.0.
+     *
+     * @param attributeIdentityConfidenceBaseScore The identity confidence base score of the attribute as defined in an entity model.
+     * @param matcherQualityScore The quality score of the matcher as defined in an entity model.
+     * @param indexFieldQualityScore The quality score of the index field as defined in an entity model.
+     * @return The attribute identity confidence score as adjusted by the quality scores.
+     */
+    public static Double calculateAttributeIdentityConfidenceScore(Double attributeIdentityConfidenceBaseScore, Double matcherQualityScore, Double indexFieldQualityScore) {
+        if (attributeIdentityConfidenceBaseScore == null)
+            return null;
+        Double score = attributeIdentityConfidenceBaseScore;
+        if (matcherQualityScore != null)
+            score = ((score - 0.5) / (score - 0.0) * ((score * matcherQualityScore) - score)) + score;
+        if (indexFieldQualityScore != null)
+            score = ((score - 0.5) / (score - 0.0) * ((score * indexFieldQualityScore) - score)) + score;
+        if (score.isNaN())
+            score = 0.0;
+        return score;
+    }
+
+    /**
+     * Number the attributes in order of their names, so that state held by the ordinals of the attributes
+     * is in the same order as the attributes.
+     */
+    private void rebuildAttributeOrdinals() {
+        int ordinal = 0;
+        for (Attribute attribute : this.attributes.values())
+            attribute.ordinal(ordinal++);
+    }
+
+    /**
+     * Number the index fields of every index and calculate the attribute identity confidence score of each of them.
+     * A score that doesn't exist is held as NaN.
+     */
+    private void rebuildAttributeIdentityConfidenceScores() {
+        List<IndexField> indexFields = new ArrayList<>();
+        for (Index index : this.indices.values())
+            indexFields.addAll(index.fields().values());
+        double[] scores = new double[indexFields.size()];
+        for (int i = 0; i < scores.length; i++) {
+            IndexField indexField = indexFields.get(i);
+            indexField.ordinal(i);
+            Attribute attribute = this.attributes.get(indexField.attribute());
+            Matcher matcher = indexField.matcher() == null ? null : this.matchers.get(indexField.matcher());
+            Double score = attribute == null ? null : calculateAttributeIdentityConfidenceScore(attribute.score(), matcher == null ? null : matcher.quality(), indexField.quality());
+            scores[i] = score == null ? Double.NaN : score;
+        }
+        this.attributeIdentityConfidenceScores = scores;
+    }
+
+    private static <T> Map<String, T> retain(Map<String, T> map, Predicate<String> names) {
+        Map<String, T> retained = new TreeMap<>();
+        for (Map.Entry<String, T> entry : map.entrySet())
+            if (names.test(entry.getKey()))
+                retained.put(entry.getKey(), entry.getValue());
+        if (retained.size() == map.size())
+            return map;
+        return Collections.unmodifiableMap(retained);
+    }
+
     public static final int MAX_STRICT_NAME_BYTES = 255;
 
     /**
@@ -203,6 +317,10 @@ public class Model {
                 throw new ValidationException("Entity model is missing required field '" + field + "'.");
 
         // Validate and hold the state of fields.
+        Map<String, Attribute> attributes = new TreeMap<>();
+        Map<String, Index> indices = new TreeMap<>();
+        Map<String, Matcher> matchers = new TreeMap<>();
+        Map<String, Resolver> resolvers = new TreeMap<>();
         Iterator<Map.Entry<String, JsonNode>> fields = json.fields();
         while (fields.hasNext()) {
             Map.Entry<String, JsonNode> field = fields.next();
@@ -217,23 +335,29 @@ public class Model {
                 JsonNode object = child.getValue();
                 switch (fieldName) {
                     case "attributes":
-                        this.attributes.put(name, new Attribute(name, object, this.validateRunnable));
+                        attributes.put(name, new Attribute(name, object, this.validateRunnable));
                         break;
                     case "indices":
-                        this.indices.put(name, new Index(name, object, this.validateRunnable));
+                        indices.put(name, new Index(name, object, this.validateRunnable));
                         break;
                     case "matchers":
-                        this.matchers.put(name, new Matcher(name, object, this.validateRunnable));
+                        matchers.put(name, new Matcher(name, object, this.validateRunnable));
                         break;
                     case "resolvers":
-                        this.resolvers.put(name, new Resolver(name, object, this.validateRunnable));
+                        resolvers.put(name, new Resolver(name, object, this.validateRunnable));
                         break;
                     default:
                         throw new ValidationException("'" + fieldName + "' is not a recognized field.");
                 }
             }
         }
+        this.attributes = Collections.unmodifiableMap(attributes);
+        this.indices = Collections.unmodifiableMap(indices);
+        this.matchers = Collections.unmodifiableMap(matchers);
+        this.resolvers = Collections.unmodifiableMap(resolvers);
         this.validateAttributeNesting();
+        this.rebuildAttributeOrdinals();
+        this.rebuildAttributeIdentityConfidenceScores();
     }
 
     public void deserialize(String json) throws ValidationException, IOException {
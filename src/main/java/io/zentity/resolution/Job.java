@@ -21,43 +21,88 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.RawValue;
+import io.zentity.common.AsyncCollectionRunner;
 import io.zentity.common.Json;
+import io.zentity.model.Index;
+import io.zentity.model.IndexField;
 import io.zentity.model.Model;
 import io.zentity.model.ValidationException;
 import io.zentity.resolution.input.Attribute;
 import io.zentity.resolution.input.Input;
 import io.zentity.resolution.input.value.Value;
+import io.zentity.resolution.input.value.ValueTable;
+import org.apache.lucene.util.RamUsageEstimator;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClosePointInTimeRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.OpenPointInTimeRequest;
+import org.elasticsearch.action.search.OpenPointInTimeResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.action.search.TransportClosePointInTimeAction;
+import org.elasticsearch.action.search.TransportOpenPointInTimeAction;
+import org.elasticsearch.client.internal.Client;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.RunOnce;
+import org.elasticsearch.common.xcontent.ChunkedToXContent;
+import org.elasticsearch.core.CheckedRunnable;
+import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.index.mapper.IgnoredFieldMapper;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.ShardDocSortField;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.transport.RemoteClusterAware;
 import org.elasticsearch.xcontent.ToXContent;
+import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentParseException;
+import org.elasticsearch.xcontent.XContentType;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 import static org.elasticsearch.xcontent.XContentFactory.jsonBuilder;
-import static io.zentity.common.Patterns.COLON;
 
 public class Job {
 
     // Constants
+    public static final boolean DEFAULT_DELTA_QUERIES = false;
+    public static final String DEFAULT_EXCLUDE_DOCS = "all";
     public static final boolean DEFAULT_INCLUDE_ATTRIBUTES = true;
     public static final boolean DEFAULT_INCLUDE_ERROR_TRACE = true;
     public static final boolean DEFAULT_INCLUDE_EXPLANATION = false;
@@ -67,22 +112,45 @@ public class Job {
     public static final boolean DEFAULT_INCLUDE_SEQ_NO_PRIMARY_TERM = false;
     public static final boolean DEFAULT_INCLUDE_SOURCE = true;
     public static final boolean DEFAULT_INCLUDE_VERSION = false;
+    public static final int DEFAULT_MAX_DOCS = -1;
     public static final int DEFAULT_MAX_DOCS_PER_QUERY = 1000;
+    public static final long DEFAULT_MAX_BYTES = -1;
     public static final int DEFAULT_MAX_HOPS = 100;
+    public static final TimeValue DEFAULT_MAX_TIME = null;
     public static final String DEFAULT_MAX_TIME_PER_QUERY = "10s";
     public static final boolean DEFAULT_PRETTY = false;
     public static final boolean DEFAULT_PROFILE = false;
 
+    // Strategies for excluding the docs that were fetched in prior hops from the queries of the next hop.
+    // Docs that were fetched in prior hops are always skipped when reading the hits of a query.
+    //  - "all"  Exclude every doc fetched in any prior hop. The exclusion clause grows with each hop.
+    //  - "hop"  Exclude the docs fetched in the previous hop, which are the docs most likely to match again,
+    //           and the docs that crowded out new docs from a capped query.
+    //  - "none" Exclude only the docs that crowded out new docs from a capped query.
+    // A capped query returns "max_docs_per_query" docs. If some of them were fetched already, they may have crowded
+    // out docs that were not. The query is then submitted again in the same hop without them, and they are excluded
+    // from the next queries of the index. The exclusion grows only with the docs that crowded out new docs.
+    public static final Set<String> EXCLUDE_DOCS_STRATEGIES = Set.of("all", "hop", "none");
+
+    // How long the point in time of a query that is paged through is kept alive between its pages.
+    private static final TimeValue SEARCH_PAGINATE_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
     // Constants (optional search parameters)
     public static Boolean DEFAULT_SEARCH_ALLOW_PARTIAL_SEARCH_RESULTS = null;
     public static Integer DEFAULT_SEARCH_BATCHED_REDUCE_SIZE = null;
+    public static Integer DEFAULT_SEARCH_MAX_CONCURRENT_SEARCHES = null;
     public static Integer DEFAULT_SEARCH_MAX_CONCURRENT_SHARD_REQUESTS = null;
+    public static Boolean DEFAULT_SEARCH_MSEARCH = false;
+    public static Boolean DEFAULT_SEARCH_PAGINATE = false;
+    public static Boolean DEFAULT_SEARCH_PARALLEL = false;
     public static Integer DEFAULT_SEARCH_PRE_FILTER_SHARD_SIZE = null;
     public static String DEFAULT_SEARCH_PREFERENCE = null;
     public static Boolean DEFAULT_SEARCH_REQUEST_CACHE = null;
 
     // Job configuration
     private Input input;
+    private boolean deltaQueries = DEFAULT_DELTA_QUERIES;
+    private String excludeDocs = DEFAULT_EXCLUDE_DOCS;
     private boolean includeAttributes = DEFAULT_INCLUDE_ATTRIBUTES;
     private boolean includeErrorTrace = DEFAULT_INCLUDE_ERROR_TRACE;
     private boolean includeExplanation = DEFAULT_INCLUDE_EXPLANATION;
@@ -92,8 +160,11 @@ public class Job {
     private boolean includeSeqNoPrimaryTerm = DEFAULT_INCLUDE_SEQ_NO_PRIMARY_TERM;
     private boolean includeSource = DEFAULT_INCLUDE_SOURCE;
     private boolean includeVersion = DEFAULT_INCLUDE_VERSION;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private int maxDocs = DEFAULT_MAX_DOCS;
     private int maxDocsPerQuery = DEFAULT_MAX_DOCS_PER_QUERY;
     private int maxHops = DEFAULT_MAX_HOPS;
+    private TimeValue maxTime = DEFAULT_MAX_TIME;
     private String maxTimePerQuery = DEFAULT_MAX_TIME_PER_QUERY;
     private boolean pretty = DEFAULT_PRETTY;
     private boolean profile = DEFAULT_PROFILE;
@@ -101,30 +172,49 @@ public class Job {
     // Job configuration (optional search parameters)
     private Boolean searchAllowPartialSearchResults = DEFAULT_SEARCH_ALLOW_PARTIAL_SEARCH_RESULTS;
     private Integer searchBatchedReduceSize = DEFAULT_SEARCH_BATCHED_REDUCE_SIZE;
+    private Integer searchMaxConcurrentSearches = DEFAULT_SEARCH_MAX_CONCURRENT_SEARCHES;
     private Integer searchMaxConcurrentShardRequests = DEFAULT_SEARCH_MAX_CONCURRENT_SHARD_REQUESTS;
+    private Boolean searchMsearch = DEFAULT_SEARCH_MSEARCH;
+    private Boolean searchPaginate = DEFAULT_SEARCH_PAGINATE;
+    private Boolean searchParallel = DEFAULT_SEARCH_PARALLEL;
     private Integer searchPreFilterShardSize = DEFAULT_SEARCH_PRE_FILTER_SHARD_SIZE;
     private String searchPreference = DEFAULT_SEARCH_PREFERENCE;
     private Boolean searchRequestCache = DEFAULT_SEARCH_REQUEST_CACHE;
 
     // Job state
-    private Map<String, Map<String, Map<String, Map<String, Double>>>> attributeIdentityConfidenceScores = new HashMap<>();
     private Map<String, Attribute> attributes = new TreeMap<>();
-    private NodeClient client;
-    private Map<String, Set<String>> docIds = new TreeMap<>();
+    private ValueTable values = new ValueTable();
+    private CircuitBreaker breaker = new NoopCircuitBreaker(CircuitBreaker.REQUEST);
+    private Executor executor = EsExecutors.DIRECT_EXECUTOR_SERVICE;
+    private long bytes = 0;
+    private BooleanSupplier cancelled = () -> false;
+    private Client client;
+    private int docCount = 0;
+    private Map<String, Set<String>> crowdingDocIds = new HashMap<>();
+    private Map<String, Set<String>> docIds = new HashMap<>();
     private String error = null;
     private boolean failed = false;
+    private Set<String> fullIndices = new HashSet<>();
     private List<String> hits = new ArrayList<>();
     private int hop = -1;
+    private Map<String, Attribute> hopDeltaAttributes = new TreeMap<>();
+    private Map<String, Set<String>> hopDocIds = new HashMap<>();
     private Boolean hopNewHits = false;
-    private Map<String, Attribute> hopNextInputAttributes = new TreeMap<>();
+    private Map<String, Attribute> hopNextInputAttributes = new HashMap<>();
+    private int hopQueryCount = 0;
     private List<Query> hopQueue = new ArrayList<>();
-    private Set<String> missingIndices = new TreeSet<>();
+    private Query pagedQuery = null;
+    private final AtomicInteger scheduledSteps = new AtomicInteger();
+    private Map<String, Set<String>> lastHopDocIds = new HashMap<>();
+    private Set<String> missingIndices = new HashSet<>();
     private List<String> queries = new ArrayList<>();
     private boolean ran = false;
     private long startTime = 0;
+    private boolean timedOut = false;
     private long took = 0;
+    private boolean truncated = false;
 
-    public Job(NodeClient client) {
+    public Job(Client client) {
         this.client = client;
     }
 
@@ -196,6 +286,68 @@ public class Job {
         return "{\"_hop\":" + _hop + ",\"_query\":" + query.number() + ",\"_index\":\"" + query.indexName() + "\",\"filters\":{" + filtersLogged + "},\"search\":" + searchLogged + "}";
     }
 
+    /**
+     * Serialize the response of a search without its hits, which are logged separately from the query.
+     *
+     * @param response The response of the search.
+     * @return
+     * @throws IOException
+     */
+    static String serializeResponseWithoutHits(SearchResponse response) throws IOException {
+        XContentBuilder builder = XContentBuilder.builder(XContentType.JSON, Collections.emptySet(), Set.of("hits.hits"));
+        ChunkedToXContent.wrapAsToXContent(response).toXContent(builder, ToXContent.EMPTY_PARAMS);
+        return Strings.toString(builder);
+    }
+
+    /**
+     * Format the doc values of a "date" index field, which are requested as epoch milliseconds.
+     * Every value of a multi-valued field is formatted.
+     *
+     * @param values    The doc values of the index field.
+     * @param formatter The formatter of the "format" param of the attribute.
+     * @return The formatted values.
+     */
+    static List<Object> formatDates(List<Object> values, SimpleDateFormat formatter) {
+        List<Object> dates = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (value == null)
+                continue;
+            long millis = value instanceof Number ? ((Number) value).longValue() : new BigDecimal(value.toString()).longValue();
+            dates.add(formatter.format(new Date(millis)));
+        }
+        return dates;
+    }
+
+    /**
+     * Serialize the metadata fields of a search hit in the order in which Elasticsearch would serialize them,
+     * omitting "_score", which is replaced by the identity confidence score.
+     *
+     * @param hit The search hit.
+     * @return
+     */
+    static ObjectNode serializeHitMetadata(SearchHit hit) {
+        ObjectNode doc = Json.ORDERED_MAPPER.createObjectNode();
+        if (hit.getIndex() != null)
+            doc.put("_index", RemoteClusterAware.buildRemoteIndexName(hit.getClusterAlias(), hit.getIndex()));
+        if (hit.getId() != null)
+            doc.put("_id", hit.getId());
+        if (hit.getVersion() != -1)
+            doc.put("_version", hit.getVersion());
+        if (hit.getSeqNo() != SequenceNumbers.UNASSIGNED_SEQ_NO) {
+            doc.put("_seq_no", hit.getSeqNo());
+            doc.put("_primary_term", hit.getPrimaryTerm());
+        }
+        for (DocumentField field : hit.getMetadataFields().values()) {
+            if (field.getValues().isEmpty())
+                continue;
+            if (field.getName().equals(IgnoredFieldMapper.NAME))
+                doc.set(field.getName(), Json.ORDERED_MAPPER.valueToTree(field.getValues()));
+            else
+                doc.set(field.getName(), Json.ORDERED_MAPPER.valueToTree(field.getValue()));
+        }
+        return doc;
+    }
+
     /**
      * Extract attribute values from a document "_source" given the path to the index field.
      * Able to extract values from object keys, arrays, and object arrays.
@@ -262,26 +414,7 @@ public class Job {
      * @return
      */
     public static ArrayList<JsonNode> extractValues(JsonNode json, String[] path, ArrayList<JsonNode> values) {
-        if (json.isObject()) {
-            String pathNext = "";
-            for (int i = 0; i < path.length; i++) {
-                pathNext = i == 0 ? path[0] : pathNext + "." + path[i];
-                if (json.has(pathNext)) {
-                    String[] pathRemaining = Arrays.copyOfRange(path, i + 1, path.length);
-                    JsonNode jsonNext = json.get(pathNext);
-                    values = extractValues(jsonNext, pathRemaining, values);
-                    break;
-                }
-            }
-        } else if (json.isArray()) {
-            Iterator<JsonNode> jsonNextIterator = json.elements();
-            while (jsonNextIterator.hasNext()) {
-                JsonNode jsonNextItem = jsonNextIterator.next();
-                values = extractValues(jsonNextItem, path, values);
-            }
-        } else {
-            values.add(json);
-        }
+        IndexField.extractValues(json, IndexField.compilePathKeys(path), 0, values);
         return values;
     }
 
@@ -345,29 +478,65 @@ public class Job {
         return true;
     }
 
+    /**
+     * Copies the attributes of the input, and interns their values so that equal values found in the docs share them.
+     */
+    private void initAttributes() {
+        this.attributes = new TreeMap<>(this.input().attributes());
+        this.values = new ValueTable();
+        for (Attribute attribute : this.attributes.values())
+            for (Value value : attribute.values())
+                this.values.intern(value);
+    }
+
     /**
      * Resets the variables that hold the state of the job, in case the same Job object is reused.
      */
     private void resetState() {
-        this.attributeIdentityConfidenceScores = new HashMap<>();
-        this.attributes = new TreeMap<>(this.input().attributes());
-        this.docIds = new TreeMap<>();
+        this.initAttributes();
+        this.docCount = 0;
+        this.crowdingDocIds = new HashMap<>();
+        this.docIds = new HashMap<>();
         this.error = null;
         this.failed = false;
+        this.fullIndices = new HashSet<>();
         this.hits = new ArrayList<>();
         this.hop = -1;
+        this.hopDeltaAttributes = new TreeMap<>();
+        this.hopDocIds = new HashMap<>();
         this.hopNewHits = false;
-        this.hopNextInputAttributes = new TreeMap<>();
+        this.hopNextInputAttributes = new HashMap<>();
+        this.hopQueryCount = 0;
         this.hopQueue = new ArrayList<>();
-        this.missingIndices = new TreeSet<>();
+        this.pagedQuery = null;
+        this.lastHopDocIds = new HashMap<>();
+        this.missingIndices = new HashSet<>();
         this.queries = new ArrayList<>();
         this.ran = false;
         this.startTime = 0;
+        this.timedOut = false;
         this.took = 0;
+        this.truncated = false;
     }
 
     // Job configuration setters and getters
 
+    public boolean deltaQueries() {
+        return this.deltaQueries;
+    }
+
+    public void deltaQueries(boolean deltaQueries) {
+        this.deltaQueries = deltaQueries;
+    }
+
+    public String excludeDocs() {
+        return this.excludeDocs;
+    }
+
+    public void excludeDocs(String excludeDocs) {
+        this.excludeDocs = excludeDocs;
+    }
+
     public boolean includeAttributes() {
         return this.includeAttributes;
     }
@@ -432,6 +601,31 @@ public class Job {
 
     public void includeVersion(Boolean includeVersion) { this.includeVersion = includeVersion; }
 
+    /**
+     * The maximum number of docs that the job fetches over all of its hops. Once the job has fetched this many docs,
+     * it stops submitting searches. Its response is marked as truncated only if there were more docs to fetch, so a job
+     * that finds exactly this many docs is not truncated. A value of -1 means that the job is limited only by its other
+     * limits.
+     *
+     * @return The maximum number of docs.
+     */
+    public int maxDocs() {
+        return this.maxDocs;
+    }
+
+    public void maxDocs(int maxDocs) {
+        this.maxDocs = maxDocs;
+    }
+
+    /**
+     * Determine whether the job has fetched as many docs as it may fetch.
+     *
+     * @return true if the job may not fetch any more docs.
+     */
+    boolean maxDocsReached() {
+        return this.maxDocs > -1 && this.docCount >= this.maxDocs;
+    }
+
     public int maxDocsPerQuery() {
         return this.maxDocsPerQuery;
     }
@@ -440,6 +634,21 @@ public class Job {
         this.maxDocsPerQuery = maxDocsPerQuery;
     }
 
+    /**
+     * The memory budget of the job, which limits the estimated bytes of the hits, logged queries, and attribute values
+     * that the job holds. The job stops and returns what it has found so far if the budget would be exceeded.
+     * A value of -1, the default, means that the job is limited only by the request circuit breaker.
+     *
+     * @return The maximum number of bytes.
+     */
+    public long maxBytes() {
+        return this.maxBytes;
+    }
+
+    public void maxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
     public int maxHops() {
         return this.maxHops;
     }
@@ -448,6 +657,21 @@ public class Job {
         this.maxHops = maxHops;
     }
 
+    /**
+     * The time budget of the whole job. The job stops submitting searches when it runs out of time and returns
+     * the hits it has gathered so far. Each search has a timeout that ends no later than the time budget of the job.
+     * A value of null means that the job has no time budget.
+     *
+     * @return The maximum time of the job.
+     */
+    public TimeValue maxTime() {
+        return this.maxTime;
+    }
+
+    public void maxTime(TimeValue maxTime) {
+        this.maxTime = maxTime;
+    }
+
     public String maxTimePerQuery() { return this.maxTimePerQuery; }
 
     public void maxTimePerQuery(String maxTimePerQuery) { this.maxTimePerQuery = maxTimePerQuery; }
@@ -484,12 +708,36 @@ public class Job {
 
     public void searchBatchedReduceSize(Integer searchBatchedReduceSize) { this.searchBatchedReduceSize = searchBatchedReduceSize; }
 
+    public Integer searchMaxConcurrentSearches() {
+        return this.searchMaxConcurrentSearches;
+    }
+
+    public void searchMaxConcurrentSearches(Integer searchMaxConcurrentSearches) { this.searchMaxConcurrentSearches = searchMaxConcurrentSearches; }
+
     public Integer searchMaxConcurrentShardRequests() {
         return this.searchMaxConcurrentShardRequests;
     }
 
     public void searchMaxConcurrentShardRequests(Integer searchMaxConcurrentShardRequests) { this.searchMaxConcurrentShardRequests = searchMaxConcurrentShardRequests; }
 
+    public Boolean searchMsearch() {
+        return this.searchMsearch;
+    }
+
+    public void searchMsearch(Boolean searchMsearch) { this.searchMsearch = searchMsearch; }
+
+    public Boolean searchPaginate() {
+        return this.searchPaginate;
+    }
+
+    public void searchPaginate(Boolean searchPaginate) { this.searchPaginate = searchPaginate; }
+
+    public Boolean searchParallel() {
+        return this.searchParallel;
+    }
+
+    public void searchParallel(Boolean searchParallel) { this.searchParallel = searchParallel; }
+
     public Integer searchPreFilterShardSize() {
         return this.searchPreFilterShardSize;
     }
@@ -513,18 +761,106 @@ public class Job {
         return this.attributes;
     }
 
-    public Map<String, Map<String, Map<String, Map<String, Double>>>> attributeIdentityConfidenceScores() {
-        return this.attributeIdentityConfidenceScores;
+    /**
+     * The attribute values of the job, interned so that each distinct value found in the documents of every hop
+     * is held by one instance.
+     *
+     * @return
+     */
+    public ValueTable values() {
+        return this.values;
+    }
+
+    /**
+     * The circuit breaker that the memory of the job is accounted against, such as the request circuit breaker of the node.
+     *
+     * @return
+     */
+    public CircuitBreaker breaker() {
+        return this.breaker;
+    }
+
+    public void breaker(CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    public long bytes() {
+        return this.bytes;
+    }
+
+    /**
+     * The executor that processes the responses of the searches of the job. By default the responses are processed
+     * on the thread that delivered them. The hits of a response can take a lot of work to process, which can be
+     * forked to a dedicated executor instead.
+     *
+     * @return
+     */
+    public Executor executor() {
+        return this.executor;
+    }
+
+    public void executor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Whether the job was cancelled, such as when the client of the request disconnected.
+     * The job checks this before it submits each search and stops if it was cancelled.
+     *
+     * @return true if the job was cancelled.
+     */
+    public boolean cancelled() {
+        return this.cancelled.getAsBoolean();
+    }
+
+    public void cancelled(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
     }
 
-    public NodeClient client() {
+    public Client client() {
         return this.client;
     }
 
+    /**
+     * The number of docs that the job has fetched, whether or not they are included in the response.
+     *
+     * @return
+     */
+    public int docCount() {
+        return this.docCount;
+    }
+
     public Map<String, Set<String>> docIds() {
         return this.docIds;
     }
 
+    /**
+     * Get the _ids of the docs to exclude from the next query of an index, as determined by the "exclude_docs" strategy.
+     *
+     * @param indexName The name of the index.
+     * @return The quoted _ids of the docs to exclude from the query.
+     */
+    public Set<String> excludedDocIds(String indexName) {
+        Set<String> docIds;
+        switch (this.excludeDocs) {
+            case "hop":
+                docIds = new HashSet<>(this.lastHopDocIds.getOrDefault(indexName, Collections.emptySet()));
+                break;
+            case "none":
+                docIds = new HashSet<>();
+                break;
+            case "all":
+            default:
+                return this.docIds.getOrDefault(indexName, Collections.emptySet());
+        }
+
+        // Exclude the docs that crowded out new docs from a capped query, and the docs that were fetched in this hop
+        // by the capped query before it is submitted again.
+        docIds.addAll(this.crowdingDocIds.getOrDefault(indexName, Collections.emptySet()));
+        docIds.addAll(this.hopDocIds.getOrDefault(indexName, Collections.emptySet()));
+        return docIds;
+    }
+
     private void error(String error) {
         this.error = error;
     }
@@ -553,6 +889,10 @@ public class Job {
         return this.hop;
     }
 
+    public Map<String, Attribute> hopDeltaAttributes() {
+        return this.hopDeltaAttributes;
+    }
+
     private void hopNewHits(Boolean hopNewHits) {
         this.hopNewHits = hopNewHits;
     }
@@ -577,6 +917,38 @@ public class Job {
         this.input = input;
     }
 
+    /**
+     * Account memory that the job is about to hold, such as a hit, against the memory budget of the job and the
+     * circuit breaker. If either would be exceeded, then the memory isn't accounted and the job is truncated.
+     *
+     * @param bytes The estimated number of bytes.
+     * @return true if the memory was accounted, or false if the job must not hold it.
+     */
+    boolean reserveBytes(long bytes) {
+        if (this.truncated)
+            return false;
+        if (this.maxBytes > -1 && this.bytes + bytes > this.maxBytes) {
+            this.truncated = true;
+            return false;
+        }
+        try {
+            this.breaker.addEstimateBytesAndMaybeBreak(bytes, "zentity_job");
+        } catch (CircuitBreakingException e) {
+            this.truncated = true;
+            return false;
+        }
+        this.bytes += bytes;
+        return true;
+    }
+
+    /**
+     * Release the memory of the job from the circuit breaker after the job completes.
+     */
+    void releaseBytes() {
+        this.breaker.addWithoutBreaking(-this.bytes);
+        this.bytes = 0;
+    }
+
     public Set<String> missingIndices() {
         return this.missingIndices;
     }
@@ -605,6 +977,65 @@ public class Job {
         return this.took;
     }
 
+    /**
+     * Whether the job stopped before completing its traversal because it ran out of time.
+     *
+     * @return true if the results of the job are partial.
+     */
+    public boolean timedOut() {
+        return this.timedOut;
+    }
+
+    /**
+     * Get the time that the job has left before it reaches its time budget.
+     *
+     * @return The remaining nanoseconds, which are negative if the job is out of time, or null if it has no time budget.
+     */
+    Long remainingNanos() {
+        if (this.maxTime == null)
+            return null;
+        return this.startTime + this.maxTime.nanos() - System.nanoTime();
+    }
+
+    /**
+     * Get the request of a query to submit now. If the job has a time budget, the timeout of the search is shortened
+     * to the time that the job has left. If the job has a limit of docs, the size of the search is trimmed to one more
+     * than the number of docs that the job has left, plus the number of docs that were fetched already and are not
+     * excluded from the search, which could take the place of new docs in its hits. The extra hit is never kept, but
+     * it tells whether the search had more new docs than the job could fetch, in which case the job is truncated.
+     *
+     * @param query The query to submit.
+     * @return The search request.
+     */
+    SearchRequestBuilder request(Query query) {
+        SearchRequestBuilder request = query.request();
+        if (this.maxDocs > -1) {
+            int remaining = Math.max(this.maxDocs - this.docCount, 0);
+            int fetched = Math.max(this.docIds.getOrDefault(query.indexName(), Collections.emptySet()).size() - query.excludedDocCount(), 0);
+            long size = remaining + 1L + fetched;
+            if (request.request().source().size() > size)
+                request.setSize((int) size);
+        }
+        Long remainingNanos = this.remainingNanos();
+        if (remainingNanos != null) {
+            TimeValue remaining = TimeValue.timeValueMillis(Math.max(TimeUnit.NANOSECONDS.toMillis(remainingNanos), 1));
+            TimeValue timeout = request.request().source().timeout();
+            if (timeout == null || timeout.compareTo(remaining) > 0)
+                request.setTimeout(remaining);
+        }
+        return request;
+    }
+
+    /**
+     * Whether the job stopped before completing its traversal because it reached its limit of docs, or because it
+     * would have exceeded its memory budget or the circuit breaker.
+     *
+     * @return true if the results of the job are partial.
+     */
+    public boolean truncated() {
+        return this.truncated;
+    }
+
     /**
      * Combine a list of attribute identity confidence scores into a single composite identity confidence score using
      * conflation of probability distributions.
@@ -620,23 +1051,101 @@ public class Job {
      * @return The composite identity confidence score.
      */
     public static Double calculateCompositeIdentityConfidenceScore(List<Double> attributeIdentityConfidenceScores) {
-        Double compositeIdentityConfidenceScore = null;
-        ArrayList<Double> scores = new ArrayList<>();
-        ArrayList<Double> scoresInverse = new ArrayList<>();
-        for (Double score : attributeIdentityConfidenceScores) {
-            if (score == null)
-                continue;
-            scores.add(score);
-            scoresInverse.add(1.0 - score);
+        CompositeIdentityConfidenceScore composite = new CompositeIdentityConfidenceScore();
+        for (Double score : attributeIdentityConfidenceScores)
+            if (score != null)
+                composite.add(score);
+        return composite.isEmpty() ? null : composite.score();
+    }
+
+    /**
+     * Combine an array of attribute identity confidence scores into a single composite identity confidence score
+     * without boxing them.
+     *
+     * @param attributeIdentityConfidenceScores An array of attribute identity confidence scores.
+     * @param length                            The number of scores to combine from the start of the array.
+     * @return The composite identity confidence score, or NaN if there are no scores.
+     * @see #calculateCompositeIdentityConfidenceScore(List)
+     */
+    public static double calculateCompositeIdentityConfidenceScore(double[] attributeIdentityConfidenceScores, int length) {
+        CompositeIdentityConfidenceScore composite = new CompositeIdentityConfidenceScore();
+        for (int i = 0; i < length; i++)
+            composite.add(attributeIdentityConfidenceScores[i]);
+        return composite.isEmpty() ? Double.NaN : composite.score();
+    }
+
+    /**
+     * Accumulates attribute identity confidence scores into a composite identity confidence score as they are found,
+     * without collecting or boxing them. When the scores are added by attribute, only the highest score of each
+     * attribute is combined, and the scores of each attribute must be added consecutively.
+     *
+     * @see #calculateCompositeIdentityConfidenceScore(List)
+     */
+    public static final class CompositeIdentityConfidenceScore {
+        private double product = 1.0;
+        private double productInverse = 1.0;
+        private int size = 0;
+        private String attributeName = null;
+        private double attributeBest = Double.NaN;
+
+        /**
+         * Add an attribute identity confidence score.
+         *
+         * @param score The attribute identity confidence score.
+         */
+        public void add(double score) {
+            flush();
+            combine(score);
+        }
+
+        /**
+         * Add an attribute identity confidence score of an attribute, keeping only the highest score of the attribute.
+         *
+         * @param attributeName The name of the attribute.
+         * @param score         The attribute identity confidence score.
+         */
+        public void add(String attributeName, double score) {
+            if (attributeName.equals(this.attributeName)) {
+                this.attributeBest = Math.max(this.attributeBest, score);
+                return;
+            }
+            flush();
+            this.attributeName = attributeName;
+            this.attributeBest = score;
+        }
+
+        public boolean isEmpty() {
+            return this.size == 0 && this.attributeName == null;
+        }
+
+        /**
+         * Get the composite identity confidence score of the scores that were added.
+         *
+         * @return The composite identity confidence score, or NaN if no scores were added.
+         */
+        public double score() {
+            flush();
+            if (this.size == 0)
+                return Double.NaN;
+            double score = this.product / (this.product + this.productInverse);
+            if (Double.isNaN(score))
+                score = 0.5;
+            return score;
         }
-        if (scores.size() > 0) {
-            Double productScores = scores.stream().reduce(1.0, (a, b) -> a * b);
-            Double productScoresInverse = scoresInverse.stream().reduce(1.0, (a, b) -> a * b);
-            compositeIdentityConfidenceScore = productScores / (productScores + productScoresInverse);
-            if (compositeIdentityConfidenceScore.isNaN())
-                compositeIdentityConfidenceScore = 0.5;
+
+        private void combine(double score) {
+            this.product *= score;
+            this.productInverse *= 1.0 - score;
+            this.size++;
+        }
+
+        private void flush() {
+            if (this.attributeName == null)
+                return;
+            combine(this.attributeBest);
+            this.attributeName = null;
+            this.attributeBest = Double.NaN;
         }
-        return compositeIdentityConfidenceScore;
     }
 
     /**
@@ -650,53 +1159,41 @@ public class Job {
      * @return The attribute identity confidence score as adjusted by the quality scores.
      */
     public static Double calculateAttributeIdentityConfidenceScore(Double attributeIdentityConfidenceBaseScore, Double matcherQualityScore, Double indexFieldQualityScore) {
-        if (attributeIdentityConfidenceBaseScore == null)
-            return null;
-        Double score = attributeIdentityConfidenceBaseScore;
-        if (matcherQualityScore != null)
-            score = ((score - 0.5) / (score - 0.0) * ((score * matcherQualityScore) - score)) + score;
-        if (indexFieldQualityScore != null)
-            score = ((score - 0.5) / (score - 0.0) * ((score * indexFieldQualityScore) - score)) + score;
-        if (score.isNaN())
-            score = 0.0;
-        return score;
+        return Model.calculateAttributeIdentityConfidenceScore(attributeIdentityConfidenceBaseScore, matcherQualityScore, indexFieldQualityScore);
+    }
+
+    /**
+     * The outcome of a query that was submitted to Elasticsearch as part of a hop.
+     * Holds a reference to the search response until the outcome is processed.
+     */
+    private static final class SearchResult {
+        private final Query query;
+        private final SearchResponse response;
+        private final Exception error;
+
+        private SearchResult(Query query, SearchResponse response, Exception error) {
+            this.query = query;
+            this.response = response;
+            this.error = error;
+        }
     }
 
     /**
-     * Get a cached attribute identity confidence score, or calculate and cache an attribute identity confidence score.
-     * This function helps minimize calculations over the life of the resolution job.
+     * Record an error that Elasticsearch returned for a query.
+     * A missing index does not fail the job. Any other error does.
      *
-     * @param attributeName  The name of the attribute.
-     * @param matcherName    The name of the matcher.
-     * @param indexName      The name of the index.
-     * @param indexFieldName The name of the index field.
-     * @return The attribute identity confidence score, either as it was cached or as it was newly calculated.
+     * @param e The error that Elasticsearch returned.
      */
-    private Double getAttributeIdentityConfidenceScore(Model model, String attributeName, String matcherName, String indexName, String indexFieldName) {
-
-        // Return the cached match score if it exists.
-        if (this.attributeIdentityConfidenceScores.containsKey(attributeName))
-            if (this.attributeIdentityConfidenceScores.get(attributeName).containsKey(matcherName))
-                if (this.attributeIdentityConfidenceScores.get(attributeName).get(matcherName).containsKey(indexName))
-                    if (this.attributeIdentityConfidenceScores.get(attributeName).get(matcherName).get(indexName).containsKey(indexFieldName))
-                        return this.attributeIdentityConfidenceScores.get(attributeName).get(matcherName).get(indexName).get(indexFieldName);
-
-        // Calculate the match score, cache it, and return it.
-        Double attributeIdentityConfidenceBaseScore = model.attributes().get(attributeName).score();
-        Double matcherQualityScore = model.matchers().get(matcherName).quality();
-        Double indexFieldQualityScore = model.indices().get(indexName).fields().get(indexFieldName).quality();
-        if (attributeIdentityConfidenceBaseScore == null)
-            return null;
-        Double attributeIdentityConfidenceScore = calculateAttributeIdentityConfidenceScore(attributeIdentityConfidenceBaseScore, matcherQualityScore, indexFieldQualityScore);
-        if (!this.attributeIdentityConfidenceScores.containsKey(attributeName))
-            this.attributeIdentityConfidenceScores.put(attributeName, new HashMap<>());
-        else if (!this.attributeIdentityConfidenceScores.get(attributeName).containsKey(matcherName))
-            this.attributeIdentityConfidenceScores.get(attributeName).put(matcherName, new HashMap<>());
-        else if (!this.attributeIdentityConfidenceScores.get(attributeName).get(matcherName).containsKey(indexName))
-            this.attributeIdentityConfidenceScores.get(attributeName).get(matcherName).put(indexName, new HashMap<>());
-        else if (!this.attributeIdentityConfidenceScores.get(attributeName).get(matcherName).get(indexName).containsKey(indexFieldName))
-            this.attributeIdentityConfidenceScores.get(attributeName).get(matcherName).get(indexName).put(indexFieldName, attributeIdentityConfidenceScore);
-        return attributeIdentityConfidenceScore;
+    private void onSearchError(Exception e) {
+        if (e.getClass() == IndexNotFoundException.class) {
+
+            // Don't fail the job if an index was missing.
+            this.missingIndices.add(((IndexNotFoundException) e).getIndex().getName());
+        } else {
+
+            // Fail the job for any other error.
+            this.failed = true;
+        }
     }
 
     /**
@@ -707,28 +1204,219 @@ public class Job {
      * @param response      The response that Elasticsearch returned.
      * @param responseError The error that Elasticsearch returned (if any, otherwise null).
      * @param onComplete    The action to perform after the job completes.
-     * @throws IOException
-     * @throws ValidationException
      */
-    private void onSearchComplete(Job job, Query query, SearchResponse response, Exception responseError, ActionListener<String> onComplete) throws IOException, ValidationException {
+    private void onSearchComplete(Job job, Query query, SearchResponse response, Exception responseError, ActionListener<String> onComplete) {
 
-        // Read response from Elasticsearch.
-        JsonNode responseData = null;
+        // Hold the response until it is processed, which may be on another thread.
         if (response != null)
-            responseData = Json.ORDERED_MAPPER.readTree(response.toString());
+            response.incRef();
+        job.process(job, () -> job.processSearchResponse(job, query, response, responseError), () -> {
+            if (response != null)
+                response.decRef();
+        }, onComplete);
+    }
+
+    /**
+     * Process the outcome of one or more searches on the executor of the job, and then continue the job traversal.
+     *
+     * @param job        The resolution job.
+     * @param processor  Processes the outcome of the searches.
+     * @param release    Releases the responses of the searches. It runs once, whether or not they could be processed.
+     * @param onComplete The action to perform after the job completes.
+     */
+    private void process(Job job, CheckedRunnable<Exception> processor, Runnable release, ActionListener<String> onComplete) {
+        RunOnce releaseOnce = new RunOnce(release);
+        job.executor().execute(new AbstractRunnable() {
+
+            @Override
+            protected void doRun() throws Exception {
+                try {
+                    processor.run();
+                } finally {
+                    releaseOnce.run();
+                }
+                job.onQueriesComplete(job, onComplete);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+
+                // An error occurred when processing the response from Elasticsearch.
+                onComplete.onFailure(e);
+            }
+
+            @Override
+            public void onAfter() {
+                releaseOnce.run();
+            }
+        });
+    }
+
+    /**
+     * This action continues the job traversal after the responses of one or more queries have been processed.
+     *
+     * @param job        The resolution job.
+     * @param onComplete The action to perform after the job completes.
+     * @throws IOException
+     */
+    private void onQueriesComplete(Job job, ActionListener<String> onComplete) throws IOException {
+
+        // Stop traversing if there was an error not due to a missing index, or if the job was truncated.
+        // Include the logged query in the response.
+        if (job.failed() || job.truncated()) {
+            onComplete.onResponse(job.response());
+            return;
+        }
+        job.traverse(job, onComplete);
+    }
+
+    /**
+     * This action processes the responses of every query in a hop that were submitted to Elasticsearch concurrently,
+     * and then continues the job traversal. The responses are processed in the order of their query numbers,
+     * which produces the same hits in the same order as submitting the queries one at a time.
+     *
+     * @param job        The resolution job.
+     * @param results    The outcomes of the queries of the hop, in the order of their query numbers.
+     * @param onComplete The action to perform after the job completes.
+     */
+    private void onHopSearchesComplete(Job job, Collection<SearchResult> results, ActionListener<String> onComplete) {
+        job.process(job, () -> {
+            for (SearchResult result : results) {
+
+                // Ignore the remaining responses after an error not due to a missing index or after the job was
+                // truncated, as if the remaining queries had not been submitted.
+                if (job.failed() || job.truncated())
+                    break;
+                if (result.error != null)
+                    job.onSearchError(result.error);
+                job.processSearchResponse(job, result.query, result.response, result.error);
+            }
+        }, () -> {
+            for (SearchResult result : results)
+                if (result.response != null)
+                    result.response.decRef();
+        }, onComplete);
+    }
+
+    /**
+     * Open a point in time to page through every match of a query using "search_after", and then continue the job
+     * traversal, which submits the pages one at a time. Each page has up to "max_docs_per_query" docs and is processed
+     * as soon as it is returned, so the job never holds more than one page of a query at a time. The point in time
+     * keeps the pages consistent with each other, even if the index is changed while the job pages through it.
+     *
+     * @param job        The resolution job.
+     * @param query      The query to submit.
+     * @param onComplete The action to perform after the job completes.
+     */
+    private void searchPages(Job job, Query query, ActionListener<String> onComplete) {
+        OpenPointInTimeRequest openRequest = new OpenPointInTimeRequest(query.indexName()).keepAlive(SEARCH_PAGINATE_KEEP_ALIVE);
+        if (job.searchPreference() != null)
+            openRequest.preference(job.searchPreference());
+        job.client().execute(TransportOpenPointInTimeAction.TYPE, openRequest, new ActionListener<>() {
+
+            @Override
+            public void onResponse(OpenPointInTimeResponse response) {
+
+                // Search the point in time instead of the index, sorted in the order that is cheapest to page through.
+                // The preference was given to the point in time, and it can't be given to its searches too.
+                SearchRequest request = query.request().request();
+                request.indices(Strings.EMPTY_ARRAY);
+                request.preference(null);
+                request.source().pointInTimeBuilder(new PointInTimeBuilder(response.getPointInTimeId()).setKeepAlive(SEARCH_PAGINATE_KEEP_ALIVE));
+                request.source().sort(SortBuilders.fieldSort(ShardDocSortField.NAME));
+                job.pagedQuery = query;
+                job.traverse(job, onComplete);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+
+                // Elasticsearch returned an error, such as when the index is missing.
+                job.onSearchError(e);
+                job.onSearchComplete(job, query, null, e, onComplete);
+            }
+        });
+    }
+
+    /**
+     * Submit the next page of the query that is being paged through, and then continue the job traversal.
+     * The point in time is closed after the last page.
+     *
+     * @param job        The resolution job.
+     * @param onComplete The action to perform after the job completes.
+     */
+    private void searchPage(Job job, ActionListener<String> onComplete) {
+        Query query = job.pagedQuery;
+        SearchRequestBuilder request = job.request(query);
+        int size = request.request().source().size();
+        request.execute(new ActionListener<>() {
+
+            @Override
+            public void onResponse(SearchResponse response) {
+                response.incRef();
+                job.process(job, () -> {
+
+                    // Process the page. A full page means that there may be more matches after it.
+                    SearchHit[] hits = response.getHits().getHits();
+                    job.processSearchResponse(job, query, response, null);
+                    Long remainingNanos = job.remainingNanos();
+                    boolean stopped = job.failed() || job.truncated() || job.maxDocsReached() || job.cancelled() || (remainingNanos != null && remainingNanos <= 0);
+                    if (hits.length > 0 && hits.length >= size && !stopped) {
+                        SearchSourceBuilder source = query.request().request().source();
+                        if (response.pointInTimeId() != null)
+                            source.pointInTimeBuilder(new PointInTimeBuilder(response.pointInTimeId()).setKeepAlive(SEARCH_PAGINATE_KEEP_ALIVE));
+                        source.searchAfter(hits[hits.length - 1].getSortValues());
+                    } else {
+
+                        // A full page may have more pages after it, which the job won't fetch if it has no docs left.
+                        if (hits.length > 0 && hits.length >= size && job.maxDocsReached())
+                            job.truncated = true;
+                        job.closePointInTime();
+                    }
+                }, response::decRef, onComplete);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+
+                // Elasticsearch returned an error.
+                job.closePointInTime();
+                job.onSearchError(e);
+                job.onSearchComplete(job, query, null, e, onComplete);
+            }
+        });
+    }
+
+    /**
+     * Close the point in time of the query that is being paged through (if any), without waiting for it to close.
+     * An unclosed point in time expires after its keep alive anyway.
+     */
+    private void closePointInTime() {
+        if (this.pagedQuery == null)
+            return;
+        PointInTimeBuilder pointInTime = this.pagedQuery.request().request().source().pointInTimeBuilder();
+        this.pagedQuery = null;
+        this.client.execute(TransportClosePointInTimeAction.TYPE, new ClosePointInTimeRequest(pointInTime.getEncodedId()), ActionListener.noop());
+    }
+
+    /**
+     * Process the response of an Elasticsearch query. Log the query, store any new hits,
+     * and gather the attribute values of the hits for the next hop.
+     *
+     * @param job           The resolution job.
+     * @param query         The query that was submitted to Elasticsearch.
+     * @param response      The response that Elasticsearch returned.
+     * @param responseError The error that Elasticsearch returned (if any, otherwise null).
+     * @throws IOException
+     * @throws ValidationException
+     */
+    private void processSearchResponse(Job job, Query query, SearchResponse response, Exception responseError) throws IOException, ValidationException {
 
         // Log queries.
         if (job.includeQueries() || job.profile()) {
             String responseString;
-            if (responseData != null) {
-                JsonNode responseDataCopy = responseData.deepCopy();
-                ObjectNode responseDataCopyObj = (ObjectNode) responseDataCopy;
-                if (responseDataCopyObj.has("hits")) {
-                    ObjectNode responseDataCopyObjHits = (ObjectNode) responseDataCopyObj.get("hits");
-                    if (responseDataCopyObjHits.has("hits"))
-                        responseDataCopyObjHits.remove("hits");
-                }
-                responseString = responseDataCopyObj.toString();
+            if (response != null) {
+                responseString = serializeResponseWithoutHits(response);
             } else {
                 if (responseError instanceof XContentParseException) {
                     XContentParseException e = (XContentParseException) responseError;
@@ -741,56 +1429,83 @@ public class Job {
                 }
             }
             String logged = serializeLoggedQuery(job.input(), job.hop(), query, responseString);
-            job.queries().add(logged);
+            if (job.reserveBytes(RamUsageEstimator.sizeOf(logged)))
+                job.queries().add(logged);
         }
 
-        // Stop traversing if there was an error not due to a missing index.
-        // Include the logged query in the response.
+        // Stop processing if there was an error not due to a missing index.
         if (job.failed()) {
             job.error(responseError);
-            onComplete.onResponse(job.response());
             return;
         }
 
-        // Traverse if there are no hits.
-        boolean hits = true;
-        if (responseData == null)
-            hits = false;
-        else if (!responseData.has("hits"))
-            hits = false;
-        else if (!responseData.get("hits").has("hits"))
-            hits = false;
-        if (!hits) {
-            job.traverse(job, onComplete);
+        // Stop processing if there are no hits, or if the job was truncated.
+        if (response == null || response.getHits() == null || job.truncated())
             return;
-        }
+
+        // Track whether the query returned as many docs as it may return, in which case more docs may match it.
+        int size = query.request().request().source().size();
+        boolean full = response.getHits().getHits().length >= size;
+        if (full)
+            job.fullIndices.add(query.indexName());
+        else
+            job.fullIndices.remove(query.indexName());
 
         // Read the hits
-        for (JsonNode doc : responseData.get("hits").get("hits")) {
+        int docCount = job.docCount;
+        List<String> crowdingDocIds = new ArrayList<>();
+        Map<String, SimpleDateFormat> dateFormatters = new HashMap<>();
+        for (SearchHit hit : response.getHits().getHits()) {
 
             // Skip doc if already fetched. Otherwise mark doc as fetched and then proceed.
-            String _id = Json.quoteString(doc.get("_id").textValue());
-            if (job.docIds().get(query.indexName()).contains(_id))
+            String _id = Json.quoteString(hit.getId());
+            if (job.docIds().get(query.indexName()).contains(_id)) {
+                crowdingDocIds.add(_id);
                 continue;
+            }
+
+            // Stop reading the hits if the job has fetched as many docs as it may fetch.
+            if (job.maxDocsReached()) {
+                job.truncated = true;
+                break;
+            }
             String indexName = query.indexName();
             job.docIds().get(indexName).add(_id);
+            job.hopDocIds.computeIfAbsent(indexName, k -> new HashSet<>()).add(_id);
 
             // Gather attributes from the doc. Store them in the "_attributes" field of the doc,
             // and include them in the attributes for subsequent queries.
-            TreeMap<String, TreeSet<Value>> docAttributes = new TreeMap<>();
-            TreeMap<String, JsonNode> docIndexFields = new TreeMap<>();
-            for (String indexFieldName : job.input().model().indices().get(indexName).fields().keySet()) {
-                String attributeName = job.input().model().indices().get(indexName).fields().get(indexFieldName).attribute();
-                if (job.input().model().attributes().get(attributeName) == null)
+            // The values of the doc are held by the ordinals of the attributes and the index fields of the entity model.
+            List<TreeSet<Value>> docAttributes = new ArrayList<>(Collections.nCopies(job.input().model().attributes().size(), null));
+            long valueBytes = job.values().ramBytesUsed();
+            JsonNode[] docIndexFields = new JsonNode[job.input().model().indexFieldCount()];
+            Index index = job.input().model().indices().get(indexName);
+            Source source = Source.read(hit, index.sourceKeys(), job.includeHits() && job.includeSource());
+            for (IndexField indexField : index.fields().values()) {
+                String indexFieldName = indexField.name();
+                String attributeName = indexField.attribute();
+                io.zentity.model.Attribute modelAttribute = job.input().model().attributes().get(attributeName);
+                if (modelAttribute == null)
                     continue;
-                String attributeType = job.input().model().attributes().get(attributeName).type();
+                String attributeType = modelAttribute.type();
+                int attributeOrdinal = modelAttribute.ordinal();
 
                 // Get the attribute values from the doc.
-                if (doc.has("fields") && doc.get("fields").has(indexFieldName)) {
+                DocumentField field = hit.getDocumentFields().get(indexFieldName);
+                if (field != null) {
 
                     // Get the attribute value from the "fields" field if it exists there.
-                    // This would include 'date' attribute types, for example.
-                    JsonNode valueNode = doc.get("fields").get(indexFieldName);
+                    // This would include 'date' attribute types, for example, whose doc values are formatted here.
+                    List<Object> fieldValues = field.getValues();
+                    if (attributeType.equals("date")) {
+                        SimpleDateFormat formatter = dateFormatters.get(indexFieldName);
+                        if (formatter == null) {
+                            formatter = Query.dateFormatter(job.input(), indexName, attributeName, indexFieldName);
+                            dateFormatters.put(indexFieldName, formatter);
+                        }
+                        fieldValues = formatDates(fieldValues, formatter);
+                    }
+                    JsonNode valueNode = Json.ORDERED_MAPPER.valueToTree(fieldValues);
                     if (valueNode.isNull() || valueNode.isMissingNode()) {
                         continue;
                     } else if (valueNode.isArray()) {
@@ -799,27 +1514,27 @@ public class Job {
                             JsonNode vNode = valueNodeIterator.next();
                             if (vNode.isNull() || valueNode.isMissingNode())
                                 continue;
-                            Value value = Value.create(attributeType, vNode);
-                            if (!docAttributes.containsKey(attributeName))
-                                docAttributes.put(attributeName, new TreeSet<>());
+                            Value value = job.values().intern(attributeType, vNode);
+                            if (docAttributes.get(attributeOrdinal) == null)
+                                docAttributes.set(attributeOrdinal, new TreeSet<>());
                             if (!job.hopNextInputAttributes().containsKey(attributeName))
                                 job.hopNextInputAttributes().put(attributeName, new Attribute(attributeName, attributeType));
-                            docAttributes.get(attributeName).add(value);
+                            docAttributes.get(attributeOrdinal).add(value);
                             job.hopNextInputAttributes().get(attributeName).values().add(value);
                         }
                         if (valueNode.size() == 1)
-                            docIndexFields.put(indexFieldName, valueNode.elements().next());
+                            docIndexFields[indexField.ordinal()] = valueNode.elements().next();
                         else
-                            docIndexFields.put(indexFieldName, valueNode);
+                            docIndexFields[indexField.ordinal()] = valueNode;
                     } else {
-                        Value value = Value.create(attributeType, valueNode);
-                        if (!docAttributes.containsKey(attributeName))
-                            docAttributes.put(attributeName, new TreeSet<>());
+                        Value value = job.values().intern(attributeType, valueNode);
+                        if (docAttributes.get(attributeOrdinal) == null)
+                            docAttributes.set(attributeOrdinal, new TreeSet<>());
                         if (!job.hopNextInputAttributes().containsKey(attributeName))
                             job.hopNextInputAttributes().put(attributeName, new Attribute(attributeName, attributeType));
-                        docAttributes.get(attributeName).add(value);
+                        docAttributes.get(attributeOrdinal).add(value);
                         job.hopNextInputAttributes().get(attributeName).values().add(value);
-                        docIndexFields.put(indexFieldName, valueNode);
+                        docIndexFields[indexField.ordinal()] = valueNode;
                     }
 
                 } else {
@@ -829,44 +1544,48 @@ public class Job {
                     // If it's not in the _source, remove the last part of the index field name from the dot notation.
                     // Index field names can reference multi-fields, which are not returned in the _source.
                     // If the document does not contain a given index field, skip that field.
-                    String[] path = job.input().model().indices().get(indexName).fields().get(indexFieldName).path();
-                    ArrayList<JsonNode> values = extractValues(doc.get("_source"), path, new ArrayList<>());
+                    if (source == null)
+                        continue;
+                    ArrayList<JsonNode> values = new ArrayList<>();
+                    indexField.extractValues(source.fields(), values);
                     if (values.size() == 0)
                         continue;
                     ArrayNode valuesArrayNode = Json.ORDERED_MAPPER.createArrayNode();
                     for (JsonNode vNode : values) {
                         if (vNode.isNull() || vNode.isMissingNode())
                             continue;
-                        Value value = Value.create(attributeType, vNode);
-                        if (!docAttributes.containsKey(attributeName))
-                            docAttributes.put(attributeName, new TreeSet<>());
+                        Value value = job.values().intern(attributeType, vNode);
+                        if (docAttributes.get(attributeOrdinal) == null)
+                            docAttributes.set(attributeOrdinal, new TreeSet<>());
                         if (!job.hopNextInputAttributes().containsKey(attributeName))
                             job.hopNextInputAttributes().put(attributeName, new Attribute(attributeName, attributeType));
-                        docAttributes.get(attributeName).add(value);
+                        docAttributes.get(attributeOrdinal).add(value);
                         valuesArrayNode.add(vNode);
                         job.hopNextInputAttributes().get(attributeName).values().add(value);
                     }
                     if (valuesArrayNode.size() == 1)
-                        docIndexFields.put(indexFieldName, valuesArrayNode.get(0));
+                        docIndexFields[indexField.ordinal()] = valuesArrayNode.get(0);
                     else
-                        docIndexFields.put(indexFieldName, valuesArrayNode);
+                        docIndexFields[indexField.ordinal()] = valuesArrayNode;
                 }
             }
 
-            // Modify doc metadata.
+            // Build the doc from its metadata.
+            String doc = null;
             if (job.includeHits()) {
-                ObjectNode docObjNode = (ObjectNode) doc;
-                docObjNode.remove("_score");
-                docObjNode.remove("fields");
+                ObjectNode docObjNode = serializeHitMetadata(hit);
                 docObjNode.put("_hop", job.hop());
                 docObjNode.put("_query", query.number());
                 if (job.includeScore())
                     docObjNode.putNull("_score");
                 if (job.includeAttributes()) {
                     docObjNode.putObject("_attributes");
-                    for (String attributeName : docAttributes.keySet()) {
+                    for (io.zentity.model.Attribute modelAttribute : job.input().model().attributes().values()) {
+                        TreeSet<Value> docAttributeValues = docAttributes.get(modelAttribute.ordinal());
+                        if (docAttributeValues == null)
+                            continue;
                         ObjectNode docAttributesObjNode = (ObjectNode) docObjNode.get("_attributes");
-                        String[] nameFields = job.input().model().attributes().get(attributeName).nameFields();
+                        String[] nameFields = modelAttribute.nameFields();
                         String lastNameField = nameFields[nameFields.length - 1];
                         if (nameFields.length > 1) {
                             // This attribute has a nested structure as indicated by the periods in its name.
@@ -894,62 +1613,52 @@ public class Job {
                         }
                         // The last name field of the attribute contains the array of values.
                         ArrayNode docAttributeArrNode = docAttributesObjNode.putArray(lastNameField);
-                        for (Value value : docAttributes.get(attributeName))
+                        for (Value value : docAttributeValues)
                             docAttributeArrNode.add(value.value());
                     }
                 }
 
                 // Determine why any matching documents matched if including "_score" or "_explanation".
-                List<Double> bestAttributeIdentityConfidenceScores = new ArrayList<>();
-                if (job.namedFilters() && docObjNode.has("matched_queries") && docObjNode.get("matched_queries").size() > 0) {
+                if (job.namedFilters() && hit.getMatchedQueries().length > 0) {
                     ObjectNode docExpObjNode = docObjNode.putObject("_explanation");
                     ObjectNode docExpResolversObjNode = docExpObjNode.putObject("resolvers");
                     ArrayNode docExpMatchesArrNode = docExpObjNode.putArray("matches");
                     Set<String> expAttributes = new TreeSet<>();
-                    Set<String> matchedQueries = new TreeSet<>();
-
-                    // Remove the unique identifier from "_name" to remove duplicates.
-                    for (JsonNode mqNode : docObjNode.get("matched_queries")) {
-                        String[] _name = COLON.split(mqNode.asText());
-                        _name = Arrays.copyOf(_name, _name.length - 1);
-                        matchedQueries.add(String.join(":", _name));
-                    }
 
+                    // Look up the matches of the named queries. Each match is named once in the query,
+                    // so the matches have no duplicates.
                     // Create tuple-like objects that describe which attribute values matched which
                     // index field values using which matchers and matcher parameters.
-                    Map<String, ArrayList<Double>> attributeIdentityConfidenceBaseScores = new HashMap<>();
-                    for (String mq : matchedQueries) {
-                        String[] _name = COLON.split(mq);
-                        String attributeName = _name[0];
-                        String indexFieldName = _name[1];
-                        String matcherName = _name[2];
-                        String attributeValueSerialized = new String(Base64.getDecoder().decode(_name[3]));
-                        String attributeType = job.input().model().attributes().get(attributeName).type();
-                        if (attributeType.equals("string") || attributeType.equals("date"))
-                            attributeValueSerialized = "\"" + attributeValueSerialized + "\"";
-                        JsonNode attributeValueNode = Json.MAPPER.readTree("{\"attribute_value\":" + attributeValueSerialized + "}").get("attribute_value");
-                        JsonNode matcherParamsNode;
-                        if (job.input().attributes().containsKey(attributeName))
-                            matcherParamsNode = Json.ORDERED_MAPPER.readTree(Json.ORDERED_MAPPER.writeValueAsString(job.input().attributes().get(attributeName).params()));
-                        else if (job.input().model().matchers().containsKey(matcherName))
-                            matcherParamsNode = Json.ORDERED_MAPPER.readTree(Json.ORDERED_MAPPER.writeValueAsString(job.input().model().matchers().get(matcherName).params()));
-                        else
-                            matcherParamsNode = Json.ORDERED_MAPPER.readTree("{}");
+                    // The matches are sorted by attribute, so the matches of each attribute are consecutive.
+                    CompositeIdentityConfidenceScore compositeIdentityConfidenceScore = new CompositeIdentityConfidenceScore();
+                    for (NamedQueries.Match match : query.namedQueries().matches(hit.getMatchedQueries())) {
+                        String attributeName = match.attributeName();
+                        String indexFieldName = match.indexFieldName();
+                        String matcherName = match.matcherName();
+                        JsonNode attributeValueNode = match.inputValue();
+                        JsonNode matcherParamsNode = match.matcherParams();
+                        if (matcherParamsNode == null) {
+                            if (job.input().attributes().containsKey(attributeName))
+                                matcherParamsNode = Json.ORDERED_MAPPER.valueToTree(job.input().attributes().get(attributeName).params());
+                            else if (job.input().model().matchers().containsKey(matcherName))
+                                matcherParamsNode = Json.ORDERED_MAPPER.valueToTree(job.input().model().matchers().get(matcherName).params());
+                            else
+                                matcherParamsNode = Json.ORDERED_MAPPER.createObjectNode();
+                            match.matcherParams(matcherParamsNode);
+                        }
 
                         // Calculate the attribute identity confidence score for this match.
                         Double attributeIdentityConfidenceScore = null;
                         if (job.includeScore()) {
-                            attributeIdentityConfidenceScore = job.getAttributeIdentityConfidenceScore(job.input().model(), attributeName, matcherName, indexName, indexFieldName);
-                            if (attributeIdentityConfidenceScore != null) {
-                                attributeIdentityConfidenceBaseScores.putIfAbsent(attributeName, new ArrayList<>());
-                                attributeIdentityConfidenceBaseScores.get(attributeName).add(attributeIdentityConfidenceScore);
-                            }
+                            attributeIdentityConfidenceScore = job.input().model().attributeIdentityConfidenceScore(index.fields().get(indexFieldName));
+                            if (attributeIdentityConfidenceScore != null)
+                                compositeIdentityConfidenceScore.add(attributeName, attributeIdentityConfidenceScore);
                         }
 
                         ObjectNode docExpDetailsObjNode = Json.ORDERED_MAPPER.createObjectNode();
                         docExpDetailsObjNode.put("attribute", attributeName);
                         docExpDetailsObjNode.put("target_field", indexFieldName);
-                        docExpDetailsObjNode.put("target_value", docIndexFields.get(indexFieldName));
+                        docExpDetailsObjNode.put("target_value", docIndexFields[index.fields().get(indexFieldName).ordinal()]);
                         docExpDetailsObjNode.put("input_value", attributeValueNode);
                         docExpDetailsObjNode.put("input_matcher", matcherName);
                         docExpDetailsObjNode.putPOJO("input_matcher_params", matcherParamsNode);
@@ -964,17 +1673,11 @@ public class Job {
 
                     if (job.includeScore()) {
 
-                        // Deconflict multiple attribute confidence scores for the same attribute
-                        // by selecting the highest score.
-                        for (String attributeName : attributeIdentityConfidenceBaseScores.keySet()) {
-                            Double best = Collections.max(attributeIdentityConfidenceBaseScores.get(attributeName));
-                            bestAttributeIdentityConfidenceScores.add(best);
-                        }
-
                         // Combine the attribute confidence scores into a composite identity confidence score.
-                        Double documentConfidenceScore = calculateCompositeIdentityConfidenceScore(bestAttributeIdentityConfidenceScores);
-                        if (documentConfidenceScore != null)
-                            docObjNode.put("_score", documentConfidenceScore);
+                        // Multiple attribute confidence scores for the same attribute were deconflicted
+                        // by selecting the highest score.
+                        if (!compositeIdentityConfidenceScore.isEmpty())
+                            docObjNode.put("_score", compositeIdentityConfidenceScore.score());
                     }
 
                     // Summarize matched resolvers
@@ -986,25 +1689,53 @@ public class Job {
                                 docExpResolverAttributesArrNode.add(attributeName);
                         }
                     }
-                    docObjNode.remove("matched_queries");
                     if (!job.includeExplanation())
                         docObjNode.remove("_explanation");
                 }
 
-                // Either remove "_source" or move "_source" under "_attributes".
-                if (!job.includeSource()) {
-                    docObjNode.remove("_source");
-                } else {
-                    JsonNode _sourceNode = docObjNode.get("_source");
-                    docObjNode.remove("_source");
-                    docObjNode.set("_source", _sourceNode);
+                // Include "_source" after "_attributes".
+                if (job.includeSource()) {
+                    if (source == null)
+                        docObjNode.putNull("_source");
+                    else
+                        docObjNode.putRawValue("_source", new RawValue(source.json()));
                 }
 
-                // Store doc in response.
-                job.hits().add(doc.toString());
+                doc = docObjNode.toString();
+            }
+
+            // Account the memory of the doc and of the attribute values that were new to the job.
+            // Stop reading the hits if the job would exceed its memory budget. The job returns the hits it has so far.
+            long bytes = job.values().ramBytesUsed() - valueBytes;
+            if (doc != null)
+                bytes += RamUsageEstimator.sizeOf(doc);
+            if (!job.reserveBytes(bytes))
+                break;
+
+            // Store doc in response.
+            job.docCount++;
+            if (doc != null)
+                job.hits().add(doc);
+        }
+
+        // Docs that were fetched already may have crowded out new docs from a capped query, unless every doc that was
+        // fetched already is excluded from the query. Exclude them from the next queries of the index, and submit the
+        // query again in this hop to fetch as many new docs as the query could have returned. Pages are exempt,
+        // because every page of a query is fetched anyway. The retry is numbered after the other queries of the hop,
+        // so that it can be told apart from the query that it retries.
+        if (full && !crowdingDocIds.isEmpty() && !job.excludeDocs().equals("all") && job.pagedQuery == null) {
+            job.crowdingDocIds.computeIfAbsent(query.indexName(), k -> new HashSet<>()).addAll(crowdingDocIds);
+            int missing = size - (job.docCount - docCount);
+            if (missing > 0 && !job.truncated() && job.maxDocsReached()) {
+
+                // The query can't be submitted again, because the job has no docs left to fetch.
+                job.truncated = true;
+            } else if (missing > 0 && !job.truncated()) {
+                Query retry = new Query(job, job.hopQueryCount++, query.indexName(), query.resolvers(), query.canQueryIds(), query.canQueryTerms());
+                retry.request().setSize(missing);
+                job.hopQueue().add(retry);
             }
         }
-        job.traverse(job, onComplete);
     }
 
     /**
@@ -1018,7 +1749,7 @@ public class Job {
     private void buildHopQueue() throws IOException, ValidationException {
 
         // Construct a query for each index that maps to a resolver.
-        int hopQueryNumber = 0;
+        this.hopQueryCount = 0;
         for (String indexName : this.input.model().indices().keySet()) {
 
             // Skip this index if a prior hop determined the index to be missing.
@@ -1027,25 +1758,33 @@ public class Job {
 
             // Track _ids for this index.
             if (!this.docIds.containsKey(indexName))
-                this.docIds.put(indexName, new TreeSet<>());
+                this.docIds.put(indexName, new HashSet<>());
 
             // Determine which resolvers can be queried for this index.
             List<String> resolvers = new ArrayList<>();
-            for (String resolverName : this.input.model().resolvers().keySet())
-                if (canQueryResolver(this.input.model(), indexName, resolverName, this.attributes))
+            boolean canQueryDeltaAttributes = false;
+            for (String resolverName : this.input.model().resolvers().keySet()) {
+                if (canQueryResolver(this.input.model(), indexName, resolverName, this.attributes)) {
                     resolvers.add(resolverName);
+                    for (String attributeName : this.input.model().resolvers().get(resolverName).attributes())
+                        if (this.hopDeltaAttributes.containsKey(attributeName))
+                            canQueryDeltaAttributes = true;
+                }
+            }
 
             // Determine if we can query this index.
+            // When querying only the attribute values that are new to this hop, a resolver that uses none of those
+            // attributes cannot match any document that a prior hop did not already match.
             boolean canQueryIds = this.hop == 0 && this.input().ids().containsKey(indexName) && !this.input().ids().get(indexName).isEmpty();
             boolean canQueryTerms = this.hop == 0 && !this.input.terms().isEmpty();
-            boolean canQueryAttributes = resolvers.size() > 0;
+            boolean canQueryAttributes = resolvers.size() > 0 && (!this.queryDeltaAttributes(indexName) || canQueryDeltaAttributes);
             if (!canQueryAttributes && !canQueryIds && !canQueryTerms)
                 continue;
 
             // Construct query for this index.
-            Query query = new Query(this, hopQueryNumber, indexName, resolvers, canQueryIds, canQueryTerms);
+            Query query = new Query(this, this.hopQueryCount, indexName, resolvers, canQueryIds, canQueryTerms);
             this.hopQueue.add(query);
-            hopQueryNumber++;
+            this.hopQueryCount++;
         }
     }
 
@@ -1059,20 +1798,84 @@ public class Job {
      */
     private void nextHop() throws IOException, ValidationException {
         this.hop++;
+        this.lastHopDocIds = this.hopDocIds;
+        this.hopDocIds = new HashMap<>();
         this.hopNewHits = false;
-        this.hopNextInputAttributes = new TreeMap<>();
+        this.hopNextInputAttributes = new HashMap<>();
         this.buildHopQueue();
     }
 
     /**
-     * Given a set of attribute values, determine which queries to submit to which indices then submit them and recurse.
+     * Determine whether the query of an index in the current hop should query only the attribute values that are new
+     * to the hop. The first hop always queries every attribute value. So does the query of an index whose last query
+     * returned as many docs as it may return, because the docs that match the prior values and were not returned yet
+     * would never be fetched otherwise.
+     *
+     * @param indexName The name of the index.
+     * @return true if the query should query only the attribute values that are new to the hop.
+     */
+    public boolean queryDeltaAttributes(String indexName) {
+        return this.deltaQueries && this.hop > 0 && !this.fullIndices.contains(indexName);
+    }
+
+    /**
+     * Continue the job traversal by scheduling its next step.
+     *
+     * The steps run one at a time in a loop on the thread that schedules the first of them. A step that is scheduled
+     * while another step is running, such as when a search completes on the thread that submitted it, runs after the
+     * current step returns instead of on top of it. This keeps the stack depth of the job constant, however many hops,
+     * queries, and pages the job has. Each step either completes the job or submits searches that schedule one more
+     * step when they complete, so no more than one step is ever waiting to run.
      *
-     * @param job        The current job, to be passed to recursive methods.
-     * @param onComplete The action to perform after completing the recursion.
+     * @param job        The current job.
+     * @param onComplete The action to perform after the job completes.
+     */
+    private void traverse(Job job, ActionListener<String> onComplete) {
+        if (job.scheduledSteps.getAndIncrement() > 0)
+            return;
+        do {
+            try {
+                job.step(job, onComplete);
+            } catch (Exception e) {
+
+                // An error occurred when preparing the searches of the step.
+                onComplete.onFailure(e);
+            }
+        } while (job.scheduledSteps.decrementAndGet() > 0);
+    }
+
+    /**
+     * Run the next step of the job traversal. Given a set of attribute values, determine which queries to submit
+     * to which indices then submit them. Hops that have no queries to submit are passed over in the same step.
+     * Every limit of the job is enforced here, before any search is submitted.
+     *
+     * @param job        The current job.
+     * @param onComplete The action to perform after the job completes.
      * @throws IOException
      * @throws ValidationException
      */
-    private void traverse(Job job, ActionListener<String> onComplete) throws IOException, ValidationException {
+    private void step(Job job, ActionListener<String> onComplete) throws IOException, ValidationException {
+
+        // Stop traversing if the job was cancelled. The searches that are in flight are cancelled by their tasks.
+        if (job.cancelled()) {
+            onComplete.onFailure(new TaskCancelledException("The resolution job was cancelled."));
+            return;
+        }
+
+        // Stop traversing if the job ran out of time. Return the hits gathered so far.
+        Long remainingNanos = job.remainingNanos();
+        if (remainingNanos != null && remainingNanos <= 0) {
+            job.timedOut = true;
+            onComplete.onResponse(job.response());
+            return;
+        }
+
+        // Submit the next page of a query that is being paged through.
+        if (job.pagedQuery != null) {
+            job.searchPage(job, onComplete);
+            return;
+        }
+
         if (job.hop() < 0) {
 
             // No hops have been initialized.
@@ -1081,7 +1884,7 @@ public class Job {
 
         }
 
-        if (job.hopQueue().size() == 0) {
+        while (job.hopQueue().size() == 0) {
 
             // The search queue for this hop is empty.
             // Stop traversing if we've reached max depth.
@@ -1093,15 +1896,22 @@ public class Job {
 
             // Maximum depth has not been reached.
             // Update the input attributes for the next queries.
+            // Track the values that are new to the next hop, which delta queries will query exclusively.
+            job.hopDeltaAttributes = new TreeMap<>();
             for (String attributeName : job.hopNextInputAttributes().keySet()) {
-                if (!job.attributes().containsKey(attributeName)) {
-                    String attributeType = job.input().model().attributes().get(attributeName).type();
+                String attributeType = job.input().model().attributes().get(attributeName).type();
+                if (!job.attributes().containsKey(attributeName))
                     job.attributes().put(attributeName, new Attribute(attributeName, attributeType));
-                }
                 for (Value value : job.hopNextInputAttributes().get(attributeName).values()) {
                     if (!job.attributes().get(attributeName).values().contains(value)) {
                         job.attributes().get(attributeName).values().add(value);
                         job.hopNewHits(true);
+                        if (!job.hopDeltaAttributes().containsKey(attributeName)) {
+                            Attribute deltaAttribute = new Attribute(attributeName, attributeType);
+                            deltaAttribute.params().putAll(job.attributes().get(attributeName).params());
+                            job.hopDeltaAttributes().put(attributeName, deltaAttribute);
+                        }
+                        job.hopDeltaAttributes().get(attributeName).values().add(value);
                     }
                 }
             }
@@ -1117,20 +1927,53 @@ public class Job {
 
         }
 
-        if (job.hopQueue().size() > 0) {
+        // Stop traversing if the job has fetched as many docs as it may fetch, but has searches left to submit.
+        // Return the hits gathered so far. A job that has no searches left ends normally, even at its limit of docs.
+        if (job.maxDocsReached()) {
+            job.truncated = true;
+            onComplete.onResponse(job.response());
+            return;
+        }
+
+        if (job.searchPaginate() && job.hopQueue().size() > 0) {
 
-            // The search queue for this hop has items. Perform the next search and then recurse.
+            // The search queue for this hop has items. Page through every match of the next search.
+            // The searches are submitted one at a time in this mode.
             Query query = job.hopQueue().remove(0);
+            job.searchPages(job, query, onComplete);
 
-            // Submit the query to Elasticsearch.
-            query.request().execute(new ActionListener<>() {
+        } else if (job.searchMsearch() && job.hopQueue().size() > 1) {
+
+            // The search queue for this hop has items. Submit every search of the hop in a single multi search request.
+            List<Query> hopQueries = new ArrayList<>(job.hopQueue());
+            job.hopQueue().clear();
+            MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+            for (Query query : hopQueries)
+                multiSearchRequest.add(job.request(query));
+            if (job.searchMaxConcurrentSearches() != null)
+                multiSearchRequest.maxConcurrentSearchRequests(job.searchMaxConcurrentSearches());
+            job.client().multiSearch(multiSearchRequest, new ActionListener<>() {
 
                 @Override
-                public void onResponse(SearchResponse response) {
+                public void onResponse(MultiSearchResponse multiSearchResponse) {
                     try {
 
-                        // Process the response from Elasticsearch.
-                        job.onSearchComplete(job, query, response, null, onComplete);
+                        // Map each item of the response back to its query. The items are in the order of the requests.
+                        List<SearchResult> results = new ArrayList<>();
+                        MultiSearchResponse.Item[] items = multiSearchResponse.getResponses();
+                        for (int i = 0; i < items.length; i++) {
+                            if (items[i].isFailure()) {
+                                Exception e = (Exception) ExceptionsHelper.unwrapCause(items[i].getFailure());
+                                results.add(new SearchResult(hopQueries.get(i), null, e));
+                            } else {
+                                SearchResponse response = items[i].getResponse();
+                                response.incRef();
+                                results.add(new SearchResult(hopQueries.get(i), response, null));
+                            }
+                        }
+
+                        // Process the responses from Elasticsearch.
+                        job.onHopSearchesComplete(job, results, onComplete);
                     } catch (Exception e) {
 
                         // An error occurred when processing the response from Elasticsearch.
@@ -1140,34 +1983,73 @@ public class Job {
 
                 @Override
                 public void onFailure(Exception e) {
-                    try {
 
-                        // Elasticsearch returned an error.
-                        Exception responseError;
-                        if (e.getClass() == IndexNotFoundException.class) {
+                    // The multi search request failed as a whole.
+                    onComplete.onFailure(e);
+                }
+            });
 
-                            // Don't fail the job if an index was missing.
-                            job.missingIndices().add(((IndexNotFoundException) e).getIndex().getName());
-                            responseError = e;
-                        } else {
+        } else if (job.searchParallel() && job.hopQueue().size() > 1) {
 
-                            // Fail the job for any other error.
-                            job.failed(true);
-                            responseError = e;
-                        }
+            // The search queue for this hop has items. Perform every search of the hop concurrently.
+            List<Query> hopQueries = new ArrayList<>(job.hopQueue());
+            job.hopQueue().clear();
+            int concurrency = hopQueries.size();
+            if (job.searchMaxConcurrentSearches() != null)
+                concurrency = Math.min(concurrency, job.searchMaxConcurrentSearches());
+            AsyncCollectionRunner<Query, SearchResult> runner = new AsyncCollectionRunner<>(
+                hopQueries,
+                (query, resultListener) -> job.request(query).execute(new ActionListener<>() {
 
-                        // Process the response from Elasticsearch.
-                        job.onSearchComplete(job, query, null, responseError, onComplete);
-                    } catch (Exception ee) {
+                    @Override
+                    public void onResponse(SearchResponse response) {
 
-                        // An error occurred when processing the response from Elasticsearch.
-                        onComplete.onFailure(ee);
+                        // Hold the response until every search of the hop has completed.
+                        response.incRef();
+                        resultListener.onResponse(new SearchResult(query, response, null));
                     }
-                }
-            });
+
+                    @Override
+                    public void onFailure(Exception e) {
+
+                        // Elasticsearch returned an error. Hold it to be processed in order with the other responses.
+                        resultListener.onResponse(new SearchResult(query, null, e));
+                    }
+                }),
+                concurrency
+            );
+
+            // Process the responses from Elasticsearch.
+            runner.run(ActionListener.wrap(
+                (results) -> job.onHopSearchesComplete(job, results, onComplete),
+                onComplete::onFailure
+            ));
 
         } else {
-            job.traverse(job, onComplete);
+
+            // The search queue for this hop has items. Perform the next search.
+            Query query = job.hopQueue().remove(0);
+
+            // Submit the query to Elasticsearch.
+            job.request(query).execute(new ActionListener<>() {
+
+                @Override
+                public void onResponse(SearchResponse response) {
+
+                    // Process the response from Elasticsearch.
+                    job.onSearchComplete(job, query, response, null, onComplete);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+
+                    // Elasticsearch returned an error.
+                    job.onSearchError(e);
+
+                    // Process the response from Elasticsearch.
+                    job.onSearchComplete(job, query, null, e, onComplete);
+                }
+            });
         }
     }
 
@@ -1180,6 +2062,10 @@ public class Job {
         String response;
         List<String> responseParts = new ArrayList<>();
         responseParts.add("\"took\":" + this.took);
+        if (this.timedOut)
+            responseParts.add("\"timed_out\":true");
+        if (this.truncated)
+            responseParts.add("\"truncated\":true");
         if (this.error != null)
             responseParts.add("\"error\":{" + this.error + "}");
         if (this.includeHits)
@@ -1206,7 +2092,7 @@ public class Job {
             if (this.ran)
                 this.resetState();
             else
-                this.attributes = new TreeMap<>(this.input.attributes());
+                this.initAttributes();
 
             // Start the timer and begin the job.
             this.startTime = System.nanoTime();
@@ -1225,6 +2111,9 @@ public class Job {
 
                         // An error occurred when preparing or sending the response.
                         onComplete.onFailure(e);
+                    } finally {
+                        job.releaseBytes();
+                        job.closePointInTime();
                     }
                 }
 
@@ -1242,6 +2131,9 @@ public class Job {
 
                         // An error occurred when preparing or sending the response.
                         onComplete.onFailure(ee);
+                    } finally {
+                        job.releaseBytes();
+                        job.closePointInTime();
                     }
                 }
             });
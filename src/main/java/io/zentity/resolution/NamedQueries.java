@@ -0,0 +1,200 @@
+/*
+ * zentity
+ * Copyright © 2018-2025 Dave Moore
+ * https://zentity.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.zentity.resolution;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import io.zentity.common.Json;
+import io.zentity.resolution.input.value.DateValue;
+import io.zentity.resolution.input.value.StringValue;
+import io.zentity.resolution.input.value.Value;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The named queries of a query, which determine why a matching document matched for "_explanation" and "_score".
+ *
+ * Each distinct match of an attribute value to an index field using a matcher is named by its position in this table.
+ * This keeps the names in the query short, and the matches of a document are found by position instead of being
+ * decoded from their names. The names have a prefix, so that they can't be confused with the names of queries in the
+ * clauses of matchers.
+ */
+public class NamedQueries {
+
+    /**
+     * The prefix of the name of each match.
+     */
+    public static final String PREFIX = "_zentity_";
+
+    /**
+     * The order in which the matches of a document are explained: by attribute, index field, matcher, and value.
+     */
+    public static final Comparator<Match> ORDER = Comparator.comparing(Match::attributeName)
+            .thenComparing(Match::indexFieldName)
+            .thenComparing(Match::matcherName)
+            .thenComparing(match -> match.value().serialized());
+
+    /**
+     * A match of an attribute value to an index field using a matcher.
+     */
+    public static final class Match {
+        private final String attributeName;
+        private final String indexFieldName;
+        private final String matcherName;
+        private final Value value;
+        private JsonNode inputValue;
+        private JsonNode matcherParams;
+
+        private Match(String attributeName, String indexFieldName, String matcherName, Value value) {
+            this.attributeName = attributeName;
+            this.indexFieldName = indexFieldName;
+            this.matcherName = matcherName;
+            this.value = value;
+        }
+
+        public String attributeName() {
+            return this.attributeName;
+        }
+
+        public String indexFieldName() {
+            return this.indexFieldName;
+        }
+
+        public String matcherName() {
+            return this.matcherName;
+        }
+
+        public Value value() {
+            return this.value;
+        }
+
+        /**
+         * The attribute value as it is shown in the "_explanation" of a document.
+         *
+         * @return
+         * @throws IOException
+         */
+        public JsonNode inputValue() throws IOException {
+            if (this.inputValue == null) {
+                if (this.value instanceof StringValue || this.value instanceof DateValue)
+                    this.inputValue = TextNode.valueOf(this.value.serialized());
+                else
+                    this.inputValue = Json.MAPPER.readTree(this.value.serialized());
+            }
+            return this.inputValue;
+        }
+
+        /**
+         * The matcher params as they are shown in the "_explanation" of a document.
+         * They are held after they are first shown, because every document of the query shows the same params.
+         *
+         * @return
+         */
+        JsonNode matcherParams() {
+            return this.matcherParams;
+        }
+
+        void matcherParams(JsonNode matcherParams) {
+            this.matcherParams = matcherParams;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Match))
+                return false;
+            Match match = (Match) o;
+            return this.attributeName.equals(match.attributeName)
+                    && this.indexFieldName.equals(match.indexFieldName)
+                    && this.matcherName.equals(match.matcherName)
+                    && this.value.serialized().equals(match.value.serialized());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.attributeName, this.indexFieldName, this.matcherName, this.value.serialized());
+        }
+    }
+
+    private final List<Match> matches = new ArrayList<>();
+    private final Map<Match, String> names = new HashMap<>();
+
+    /**
+     * Get the name of a match of an attribute value to an index field using a matcher, adding it to the table if it's new.
+     *
+     * @param attributeName  The name of the attribute.
+     * @param indexFieldName The name of the index field.
+     * @param matcherName    The name of the matcher.
+     * @param value          The attribute value.
+     * @return The name of the match.
+     */
+    public String name(String attributeName, String indexFieldName, String matcherName, Value value) {
+        Match match = new Match(attributeName, indexFieldName, matcherName, value);
+        String name = this.names.get(match);
+        if (name == null) {
+            name = PREFIX + this.matches.size();
+            this.matches.add(match);
+            this.names.put(match, name);
+        }
+        return name;
+    }
+
+    /**
+     * Get the matches of the names of the queries that a document matched, in the order in which they are explained.
+     * Names that aren't in the table, such as the names of queries in the clauses of matchers, are ignored.
+     *
+     * @param names The names of the matched queries.
+     * @return The matches.
+     */
+    public List<Match> matches(String[] names) {
+        List<Match> matches = new ArrayList<>(names.length);
+        for (String name : names) {
+            Match match = get(name);
+            if (match != null)
+                matches.add(match);
+        }
+        matches.sort(ORDER);
+        return matches;
+    }
+
+    private Match get(String name) {
+        int length = name.length();
+        int start = PREFIX.length();
+        if (length == start || length > start + 9 || !name.startsWith(PREFIX))
+            return null;
+        int position = 0;
+        for (int i = start; i < length; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9')
+                return null;
+            position = position * 10 + (c - '0');
+        }
+        return position < this.matches.size() ? this.matches.get(position) : null;
+    }
+
+    public int size() {
+        return this.matches.size();
+    }
+}
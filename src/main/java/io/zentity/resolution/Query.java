@@ -20,6 +20,7 @@ package io.zentity.resolution;
 import io.zentity.common.Json;
 import io.zentity.common.Patterns;
 import io.zentity.model.Index;
+import io.zentity.model.IndexField;
 import io.zentity.model.Matcher;
 import io.zentity.model.Model;
 import io.zentity.model.ValidationException;
@@ -41,82 +42,132 @@ import org.elasticsearch.xcontent.XContentType;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
 
 public class Query {
 
+    private final boolean canQueryIds;
+    private final boolean canQueryTerms;
+    private final int excludedDocCount;
     private final String indexName;
     private final int number;
     private final String query;
     private final SearchRequestBuilder request;
     private final List<String> resolvers;
+    private final NamedQueries namedQueries;
     private TreeMap<String, TreeMap> resolversFilterTree = new TreeMap<>();
     private TreeMap<Integer, TreeMap<String, TreeMap>> resolversFilterTreeGrouped = new TreeMap<>();
     private List<String> termResolvers = new ArrayList<>();
     private TreeMap<String, TreeMap> termResolversFilterTree = new TreeMap<>();
 
     /**
-     * Builds the "script_fields" clause of an Elasticsearch query.
+     * The format in which the doc values of "date" index fields are requested. The doc values are then formatted by
+     * {@link #dateFormatter(Input, String, String, String)}, because the "format" param of a "date" attribute is a
+     * {@link SimpleDateFormat} pattern, which Elasticsearch does not support. Its java.time patterns treat some
+     * letters differently, such as "u" and "Y".
+     */
+    public static final String DATE_DOC_VALUE_FORMAT = "epoch_millis";
+
+    /**
+     * Get the "format" param of a "date" attribute for an index field. The format could be declared in the input
+     * attributes, the model attributes, or the model matchers, in descending order of precedence.
+     *
+     * @param input          The input of the resolution job.
+     * @param indexName      The index name of the index field.
+     * @param attributeName  The attribute name of the index field.
+     * @param indexFieldName The index field name.
+     * @return The "format" param.
+     * @throws ValidationException
+     */
+    public static String dateFormat(Input input, String indexName, String attributeName, String indexFieldName) throws ValidationException {
+        Index index = input.model().indices().get(indexName);
+
+        // Check if the required params are defined in the input attribute.
+        if (input.attributes().containsKey(attributeName) && input.attributes().get(attributeName).params().containsKey("format") && !input.attributes().get(attributeName).params().get("format").equals("null") && !Patterns.EMPTY_STRING.matcher(input.attributes().get(attributeName).params().get("format")).matches())
+            return input.attributes().get(attributeName).params().get("format");
+
+        // Otherwise check if the required params are defined in the model attribute.
+        Map<String, String> params = input.model().attributes().get(attributeName).params();
+        if (params.containsKey("format") && !params.get("format").equals("null") && !Patterns.EMPTY_STRING.matcher(params.get("format")).matches())
+            return params.get("format");
+
+        // Otherwise check if the required params are defined in the matcher associated with the index field.
+        String matcherName = index.attributeIndexFieldsMap().get(attributeName).get(indexFieldName).matcher();
+        params = input.model().matchers().get(matcherName).params();
+        if (params.containsKey("format") && !params.get("format").equals("null") && !Patterns.EMPTY_STRING.matcher(params.get("format")).matches())
+            return params.get("format");
+
+        // If we've gotten this far, that means that the required params for this attribute type
+        // haven't been specified in any valid places.
+        throw new ValidationException("'attributes." + attributeName + "' is a 'date' which required a 'format' to be specified in the params.");
+    }
+
+    /**
+     * Make the formatter of the doc values of a "date" index field. The values are formatted in UTC by the
+     * {@link SimpleDateFormat} pattern of the "format" param, as the Painless script that once formatted them did.
+     * The root locale keeps the values the same on every node. The formatter is not thread-safe.
+     *
+     * @param input          The input of the resolution job.
+     * @param indexName      The index name of the index field.
+     * @param attributeName  The attribute name of the index field.
+     * @param indexFieldName The index field name.
+     * @return The formatter.
+     * @throws ValidationException if the "format" param is missing or is not a valid pattern.
+     */
+    public static SimpleDateFormat dateFormatter(Input input, String indexName, String attributeName, String indexFieldName) throws ValidationException {
+        String format = dateFormat(input, indexName, attributeName, indexFieldName);
+        SimpleDateFormat formatter;
+        try {
+            formatter = new SimpleDateFormat(format, Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("'attributes." + attributeName + "' has an invalid 'format': " + e.getMessage());
+        }
+        formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return formatter;
+    }
+
+    /**
+     * Builds the "docvalue_fields" clause of an Elasticsearch query.
      * This is required by some zentity attribute types such as the "date" type.
      *
      * @param input     The input of the resolution job.
      * @param indexName The index name of the query.
-     * @return A JSON-formatted string of the "script_fields" clause of an Elasticsearch query.
+     * @return A JSON-formatted string of the "docvalue_fields" clause of an Elasticsearch query.
      * @throws ValidationException
      */
-    public static String makeScriptFieldsClause(Input input, String indexName) throws ValidationException {
-        List<String> scriptFieldClauses = new ArrayList<>();
+    public static String makeDocValueFieldsClause(Input input, String indexName) throws ValidationException {
+        List<String> docValueFieldClauses = new ArrayList<>();
 
-        // Find any index fields that need to be included in the "script_fields" clause.
+        // Find any index fields that need to be included in the "docvalue_fields" clause.
         // Currently this includes any index field that is associated with a "date" attribute,
         // which requires the "_source" value to be reformatted to a normalized format.
+        // The doc values are requested as epoch milliseconds, and the job formats them by the "format" param,
+        // so no script needs to run for each document.
         Index index = input.model().indices().get(indexName);
         for (String attributeName : index.attributeIndexFieldsMap().keySet()) {
             switch (input.model().attributes().get(attributeName).type()) {
                 case "date":
 
-                    // Required params
-                    String format;
-
-                    // Make a "script" clause for each index field associated with this attribute.
+                    // Make a "docvalue_fields" clause for each index field associated with this attribute.
                     for (String indexFieldName : index.attributeIndexFieldsMap().get(attributeName).keySet()) {
-                        // Check if the required params are defined in the input attribute.
-                        if (input.attributes().containsKey(attributeName) && input.attributes().get(attributeName).params().containsKey("format") && !input.attributes().get(attributeName).params().get("format").equals("null") && !Patterns.EMPTY_STRING.matcher(input.attributes().get(attributeName).params().get("format")).matches()) {
-                            format = input.attributes().get(attributeName).params().get("format");
-                        } else {
-                            // Otherwise check if the required params are defined in the model attribute.
-                            Map<String, String> params = input.model().attributes().get(attributeName).params();
-                            if (params.containsKey("format") && !params.get("format").equals("null") && !Patterns.EMPTY_STRING.matcher(params.get("format")).matches()) {
-                                format = params.get("format");
-                            } else {
-                                // Otherwise check if the required params are defined in the matcher associated with the index field.
-                                String matcherName = index.attributeIndexFieldsMap().get(attributeName).get(indexFieldName).matcher();
-                                params = input.model().matchers().get(matcherName).params();
-                                if (params.containsKey("format") && !params.get("format").equals("null") && !Patterns.EMPTY_STRING.matcher(params.get("format")).matches()) {
-                                    format = params.get("format");
-                                } else {
-                                    // If we've gotten this far, that means that the required params for this attribute type
-                                    // haven't been specified in any valid places.
-                                    throw new ValidationException("'attributes." + attributeName + "' is a 'date' which required a 'format' to be specified in the params.");
-                                }
-                            }
-                        }
 
-                        // Make the "script" clause
-                        String scriptSource = "DateFormat df = new SimpleDateFormat(params.format); df.setTimeZone(TimeZone.getTimeZone('UTC')); return df.format(doc[params.field].value.toInstant().toEpochMilli())";
-                        String scriptParams = "\"field\":\"" + indexFieldName + "\",\"format\":\"" + format + "\"";
-                        String scriptFieldClause = "\"" + indexFieldName + "\":{\"script\":{\"lang\":\"painless\",\"source\":\"" + scriptSource + "\",\"params\":{" + scriptParams + "}}}";
-                        scriptFieldClauses.add(scriptFieldClause);
+                        // Validate the required params before the query is submitted.
+                        dateFormatter(input, indexName, attributeName, indexFieldName);
+
+                        // Make the "docvalue_fields" clause
+                        String docValueFieldClause = "{\"field\":" + Json.quoteString(indexFieldName) + ",\"format\":\"" + DATE_DOC_VALUE_FORMAT + "\"}";
+                        docValueFieldClauses.add(docValueFieldClause);
                     }
                     break;
 
@@ -124,14 +175,42 @@ public class Query {
                     break;
             }
         }
-        if (scriptFieldClauses.isEmpty())
+        if (docValueFieldClauses.isEmpty())
             return null;
-        return "\"script_fields\":{" + String.join(",", scriptFieldClauses) + "}";
+        return "\"docvalue_fields\":[" + String.join(",", docValueFieldClauses) + "]";
+    }
+
+    /**
+     * Builds the "_source" clause of an Elasticsearch query.
+     * The whole "_source" is fetched only if it will be returned in the hits of the response. Otherwise only the
+     * parts of the "_source" that can hold the values of the index fields are fetched, which avoids loading and
+     * transferring the rest of each document.
+     *
+     * Each index field is included by its full path, so that only the part of an object that holds it is fetched.
+     * An index field name can refer to a multi-field, which is not in the "_source", so the immediate parent of an
+     * index field is included too. The values of a multi-field are extracted from the field that it belongs to.
+     *
+     * @param job       The resolution job.
+     * @param indexName The index name of the query.
+     * @return A JSON-formatted string of the "_source" clause of an Elasticsearch query.
+     */
+    public static String makeSourceClause(Job job, String indexName) {
+        if (job.includeHits() && job.includeSource())
+            return "\"_source\":true";
+        Set<String> includes = new TreeSet<>();
+        for (IndexField indexField : job.input().model().indices().get(indexName).fields().values()) {
+            String[] path = indexField.path();
+            includes.add(Json.quoteString(indexField.name()));
+            if (path.length > 1)
+                includes.add(Json.quoteString(String.join(".", Arrays.copyOf(path, path.length - 1))));
+        }
+        return "\"_source\":{\"includes\":[" + String.join(",", includes) + "]}";
     }
 
     /**
      * Given a clause from the "matchers" field of an entity model, replace the {{ field }} and {{ value }} variables
      * and arbitrary parameters. If a parameter exists, replace the {{ params.PARAM_NAME }} variable with its value.
+     * The value is inserted verbatim, so it must already be escaped for the JSON string that it populates.
      *
      * @param matcher        The matcher object.
      * @param indexFieldName The name of the index field to populate in the clause.
@@ -140,29 +219,7 @@ public class Query {
      * @return A "bool" clause that references the desired field and value.
      */
     public static String populateMatcherClause(Matcher matcher, String indexFieldName, String value, Map<String, String> params) throws ValidationException {
-        String matcherClause = matcher.clause();
-        for (String variable : matcher.variables().keySet()) {
-            Pattern pattern = matcher.variables().get(variable);
-            switch (variable) {
-                case "field":
-                    matcherClause = pattern.matcher(matcherClause).replaceAll(indexFieldName);
-                    break;
-                case "value":
-                    matcherClause = pattern.matcher(matcherClause).replaceAll(value);
-                    break;
-                default:
-                    java.util.regex.Matcher m = Patterns.VARIABLE_PARAMS.matcher(variable);
-                    if (m.find()) {
-                        String var = m.group(1);
-                        if (!params.containsKey(var))
-                            throw new ValidationException("'matchers." + matcher.name() + "' was given no value for '{{ " + variable + " }}'");
-                        String paramValue = params.get(var);
-                        matcherClause = pattern.matcher(matcherClause).replaceAll(paramValue);
-                    }
-                    break;
-            }
-        }
-        return matcherClause;
+        return matcher.populate(indexFieldName, value, params);
     }
 
     /**
@@ -176,10 +233,23 @@ public class Query {
      * @param combiner      Combine clauses with "should" or "filter".
      * @return A JSON-formatted string containing all populated matcher "bool" clauses for an index field.
      */
-    public static List<String> makeIndexFieldClauses(Model model, String indexName, Map<String, Attribute> attributes, String attributeName, String combiner, boolean namedFilters, AtomicInteger _nameIdCounter) throws ValidationException {
+    public static List<String> makeIndexFieldClauses(Model model, String indexName, Map<String, Attribute> attributes, String attributeName, String combiner, NamedQueries namedQueries) throws ValidationException {
         if (!combiner.equals("should") && !combiner.equals("filter"))
             throw new ValidationException("'" + combiner + "' is not a supported clause combiner.");
         List<String> indexFieldClauses = new ArrayList<>();
+        Attribute attribute = attributes.get(attributeName);
+
+        // Escape each value for the matcher clauses once, and reuse it for every index field.
+        // Skip values that are blank.
+        List<Value> values = new ArrayList<>();
+        List<String> escapedValues = new ArrayList<>();
+        for (Value value : attribute.values()) {
+            if (value.serialized() == null || value.serialized().equals(""))
+                continue;
+            values.add(value);
+            escapedValues.add(Json.escapeString(value.serialized()));
+        }
+
         for (String indexFieldName : model.indices().get(indexName).attributeIndexFieldsMap().get(attributeName).keySet()) {
 
             // Can we use this index field?
@@ -190,7 +260,6 @@ public class Query {
             String matcherName = model.indices().get(indexName).fields().get(indexFieldName).matcher();
             Matcher matcher = model.matchers().get(matcherName);
             List<String> valueClauses = new ArrayList<>();
-            Attribute attribute = attributes.get(attributeName);
 
             // Determine which values to pass to the matcher parameters.
             // Order of precedence:
@@ -201,19 +270,14 @@ public class Query {
             params.putAll(model.attributes().get(attributeName).params());
             params.putAll(attributes.get(attributeName).params());
 
-            for (Value value : attribute.values()) {
-
-                // Skip value if it's blank.
-                if (value.serialized() == null || value.serialized().equals(""))
-                    continue;
+            for (int i = 0; i < escapedValues.size(); i++) {
 
                 // Populate the {{ field }}, {{ value }}, and {{ param.* }} variables of the matcher template.
-                String valueClause = populateMatcherClause(matcher, indexFieldName, value.serialized(), params);
-                if (namedFilters) {
+                String valueClause = populateMatcherClause(matcher, indexFieldName, escapedValues.get(i), params);
+                if (namedQueries != null) {
 
                     // Name the clause to determine why any matching document matched
-                    String valueBase64 = Base64.getEncoder().encodeToString(value.serialized().getBytes());
-                    String _name = attributeName + ":" + indexFieldName + ":" + matcherName + ":" + valueBase64 + ":" + _nameIdCounter.getAndIncrement();
+                    String _name = namedQueries.name(attributeName, indexFieldName, matcherName, values.get(i));
                     valueClause = "{\"bool\":{\"_name\":\"" + _name + "\",\"filter\":" + valueClause + "}}";
                 }
                 valueClauses.add(valueClause);
@@ -243,14 +307,14 @@ public class Query {
      * @param combiner   Combine clauses with "should" or "filter".
      * @return A list of JSON-formatted strings each containing the populated matcher "bool" clauses for each attribute.
      */
-    public static List<String> makeAttributeClauses(Model model, String indexName, Map<String, Attribute> attributes, String combiner, boolean namedFilters, AtomicInteger _nameIdCounter) throws ValidationException {
+    public static List<String> makeAttributeClauses(Model model, String indexName, Map<String, Attribute> attributes, String combiner, NamedQueries namedQueries) throws ValidationException {
         if (!combiner.equals("should") && !combiner.equals("filter"))
             throw new ValidationException("'" + combiner + "' is not a supported clause combiner.");
         List<String> attributeClauses = new ArrayList<>();
         for (String attributeName : attributes.keySet()) {
 
             // Construct a "should" or "filter" clause for each index field mapped to this attribute.
-            List<String> indexFieldClauses = makeIndexFieldClauses(model, indexName, attributes, attributeName, combiner, namedFilters, _nameIdCounter);
+            List<String> indexFieldClauses = makeIndexFieldClauses(model, indexName, attributes, attributeName, combiner, namedQueries);
             if (indexFieldClauses.size() == 0)
                 continue;
 
@@ -274,14 +338,14 @@ public class Query {
      * @param attributes          The names and values for the input attributes.
      * @return A "bool" clause for all applicable resolvers.
      */
-    public static String populateResolversFilterTree(Model model, String indexName, TreeMap<String, TreeMap> resolversFilterTree, Map<String, Attribute> attributes, boolean namedFilters, AtomicInteger _nameIdCounter) throws ValidationException {
+    public static String populateResolversFilterTree(Model model, String indexName, TreeMap<String, TreeMap> resolversFilterTree, Map<String, Attribute> attributes, NamedQueries namedQueries) throws ValidationException {
 
         // Construct a "filter" clause for each attribute at this level of the filter tree.
         List<String> attributeClauses = new ArrayList<>();
         for (String attributeName : resolversFilterTree.keySet()) {
 
             // Construct a "should" clause for each index field mapped to this attribute.
-            List<String> indexFieldClauses = makeIndexFieldClauses(model, indexName, attributes, attributeName, "should", namedFilters, _nameIdCounter);
+            List<String> indexFieldClauses = makeIndexFieldClauses(model, indexName, attributes, attributeName, "should", namedQueries);
             if (indexFieldClauses.size() == 0)
                 continue;
 
@@ -293,7 +357,7 @@ public class Query {
                 indexFieldsClause = indexFieldClauses.get(0);
 
             // Populate any child filters.
-            String filter = populateResolversFilterTree(model, indexName, resolversFilterTree.get(attributeName), attributes, namedFilters, _nameIdCounter);
+            String filter = populateResolversFilterTree(model, indexName, resolversFilterTree.get(attributeName), attributes, namedQueries);
             if (!filter.isEmpty())
                 attributeClauses.add("{\"bool\":{\"filter\":[" + indexFieldsClause + "," + filter + "]}}");
             else
@@ -311,6 +375,79 @@ public class Query {
             return "";
     }
 
+    /**
+     * Populate the resolver clause of a query using only the attribute values that are new to a hop.
+     *
+     * A document that matches a resolver using only values that were known in a prior hop would have been matched
+     * in that prior hop. So a document that is new to this hop must match at least one new value of some attribute
+     * of the resolver, while the other attributes of the resolver may match any known value. For each attribute with
+     * new values, this populates the filter tree of the resolvers that use the attribute, with the values of the
+     * attribute limited to the new values, and then combines the clauses into a single "should" clause.
+     *
+     * @param model           The entity model.
+     * @param indexName       The name of the index to reference in the entity model.
+     * @param resolvers       The names of the resolvers to be queried.
+     * @param attributes      The names and values of every known attribute.
+     * @param deltaAttributes The names and values of the attributes that are new to the hop.
+     * @return A "bool" clause for all applicable resolvers, or an empty string if no resolver uses a new value.
+     */
+    public static String populateDeltaResolversClause(Model model, String indexName, List<String> resolvers, Map<String, Attribute> attributes, Map<String, Attribute> deltaAttributes, NamedQueries namedQueries) throws ValidationException {
+        List<String> deltaClauses = new ArrayList<>();
+        for (String deltaAttributeName : deltaAttributes.keySet()) {
+
+            // Find the resolvers that use this attribute.
+            List<String> deltaResolvers = new ArrayList<>();
+            for (String resolverName : resolvers)
+                if (model.resolvers().get(resolverName).attributes().contains(deltaAttributeName))
+                    deltaResolvers.add(resolverName);
+            if (deltaResolvers.isEmpty())
+                continue;
+
+            // Limit the values of this attribute to the new values.
+            Map<String, Attribute> deltaView = new TreeMap<>(attributes);
+            deltaView.put(deltaAttributeName, deltaAttributes.get(deltaAttributeName));
+
+            // Construct the resolvers clause for this attribute.
+            Map<String, Integer> counts = countAttributesAcrossResolvers(model, deltaResolvers);
+            List<List<String>> resolversSorted = sortResolverAttributes(model, deltaResolvers, counts);
+            TreeMap<String, TreeMap> filterTree = makeResolversFilterTree(resolversSorted);
+            String deltaClause = populateResolversFilterTree(model, indexName, filterTree, deltaView, namedQueries);
+            if (!deltaClause.isEmpty())
+                deltaClauses.add(deltaClause);
+        }
+
+        // Combine each attribute clause into a single "should" clause.
+        int size = deltaClauses.size();
+        if (size > 1)
+            return "{\"bool\":{\"should\":[" + String.join(",", deltaClauses) + "]}}";
+        else if (size == 1)
+            return deltaClauses.get(0);
+        else
+            return "";
+    }
+
+    /**
+     * Determine whether any resolver of a higher weight level than the given level uses an attribute with values that
+     * are new to the hop. The higher weight levels filter the docs of the lower weight levels, so a new value of such
+     * an attribute can let a doc match a lower weight level by its prior values. That level must then be queried with
+     * every value.
+     *
+     * @param model           The entity model.
+     * @param weights         The weights of the levels in descending order.
+     * @param resolverGroups  The names of the resolvers of each weight.
+     * @param level           The level whose higher weight levels are checked.
+     * @param deltaAttributes The attribute values that are new to the hop.
+     * @return true if a higher weight level uses a new value.
+     */
+    public static boolean parentLevelsHaveDeltaAttributes(Model model, List<Integer> weights, Map<Integer, List<String>> resolverGroups, int level, Map<String, Attribute> deltaAttributes) {
+        for (int parentLevel = 0; parentLevel < level; parentLevel++)
+            for (String resolverName : resolverGroups.get(weights.get(parentLevel)))
+                for (String attributeName : model.resolvers().get(resolverName).attributes())
+                    if (deltaAttributes.containsKey(attributeName) && !deltaAttributes.get(attributeName).values().isEmpty())
+                        return true;
+        return false;
+    }
+
     /**
      * Reorganize the attributes of all resolvers into a tree of Maps.
      *
@@ -395,6 +532,18 @@ public class Query {
         return resolverGroups;
     }
 
+    /**
+     * Holds the registry that parses the queries of a search request.
+     *
+     * Constructing a search module registers every query, aggregation, and suggester, which is too expensive to repeat
+     * for each query. The registry is immutable, so it's constructed once when the first query is parsed and then
+     * shared by every query thereafter.
+     */
+    private static final class SearchXContentRegistry {
+        private static final NamedXContentRegistry INSTANCE = new NamedXContentRegistry(
+                new SearchModule(Settings.EMPTY, Collections.emptyList()).getNamedXContents());
+    }
+
     /**
      * Build a search request for Elasticsearch.
      *
@@ -405,9 +554,8 @@ public class Query {
      */
     public static SearchRequestBuilder buildSearchRequest(Job job, String indexName, String query) throws IOException {
         SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        SearchModule searchModule = new SearchModule(Settings.EMPTY, Collections.emptyList());
-        try (XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(new NamedXContentRegistry(searchModule
-                .getNamedXContents()), DeprecationHandler.THROW_UNSUPPORTED_OPERATION, new ByteArrayInputStream(query.getBytes()))) {
+        try (XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(SearchXContentRegistry.INSTANCE,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, new ByteArrayInputStream(query.getBytes(StandardCharsets.UTF_8)))) {
             searchSourceBuilder.parseXContent(parser, false, nf -> true);
         }
         SearchRequestBuilder searchRequestBuilder = new SearchRequestBuilder(job.client());
@@ -430,13 +578,14 @@ public class Query {
     }
 
     public Query(Job job, int number, String indexName, List<String> resolvers, Boolean canQueryIds, Boolean canQueryTerms) throws ValidationException, IOException {
+        this.canQueryIds = canQueryIds;
+        this.canQueryTerms = canQueryTerms;
         this.indexName = indexName;
         this.number = number;
         this.resolvers = resolvers;
 
-        // "_explanation" uses named queries, and each value of the "_name" fields must be unique.
-        // Use a counter to prepend a unique and deterministic identifier for each "_name" field in the query.
-        AtomicInteger _nameIdCounter = new AtomicInteger();
+        // "_explanation" uses named queries, which are named by their position in a table of the matches of the query.
+        this.namedQueries = job.namedFilters() ? new NamedQueries() : null;
 
         // Construct query
         String queryClause;
@@ -445,16 +594,18 @@ public class Query {
         List<String> queryFilterClauses = new ArrayList<>();
         String queryFilterClause = "";
         List<String> topLevelClauses = new ArrayList<>();
-        topLevelClauses.add("\"_source\":true");
+        topLevelClauses.add(makeSourceClause(job, indexName));
 
         // Exclude docs by _id
-        Set<String> docIds = job.docIds().get(indexName);
+        // The _ids are held in hash sets, so sort them to keep the query deterministic.
+        Set<String> docIds = job.excludedDocIds(indexName);
+        this.excludedDocCount = docIds.size();
         if (!docIds.isEmpty())
-            queryMustNotClauses.add("{\"ids\":{\"values\":[" + String.join(",", docIds) + "]}}");
+            queryMustNotClauses.add("{\"ids\":{\"values\":[" + String.join(",", new TreeSet<>(docIds)) + "]}}");
 
         // Create "scope.exclude.attributes" clauses. Combine them into a single "should" clause.
         if (!job.input().scope().exclude().attributes().isEmpty()) {
-            List<String> attributeClauses = makeAttributeClauses(job.input().model(), indexName, job.input().scope().exclude().attributes(), "should", job.namedFilters(), _nameIdCounter);
+            List<String> attributeClauses = makeAttributeClauses(job.input().model(), indexName, job.input().scope().exclude().attributes(), "should", this.namedQueries);
             int size = attributeClauses.size();
             if (size > 1)
                 queryMustNotClauses.add("{\"bool\":{\"should\":[" + String.join(",", attributeClauses) + "]}}");
@@ -470,7 +621,7 @@ public class Query {
 
         // Construct "scope.include.attributes" clauses. Combine them into a single "filter" clause.
         if (!job.input().scope().include().attributes().isEmpty()) {
-            List<String> attributeClauses = makeAttributeClauses(job.input().model(), indexName, job.input().scope().include().attributes(), "filter", job.namedFilters(), _nameIdCounter);
+            List<String> attributeClauses = makeAttributeClauses(job.input().model(), indexName, job.input().scope().include().attributes(), "filter", this.namedQueries);
             int size = attributeClauses.size();
             if (size > 1)
                 queryFilterClauses.add("{\"bool\":{\"filter\":[" + String.join(",", attributeClauses) + "]}}");
@@ -503,7 +654,17 @@ public class Query {
                 List<List<String>> resolversSorted = sortResolverAttributes(job.input().model(), resolversGroup, counts);
                 this.resolversFilterTree = makeResolversFilterTree(resolversSorted);
                 this.resolversFilterTreeGrouped.put(numWeightLevels - level - 1, this.resolversFilterTree);
-                resolversClause = populateResolversFilterTree(job.input().model(), indexName, this.resolversFilterTree, job.attributes(), job.namedFilters(), _nameIdCounter);
+                if (job.queryDeltaAttributes(indexName) && !parentLevelsHaveDeltaAttributes(job.input().model(), weights, resolverGroups, level, job.hopDeltaAttributes())) {
+
+                    // Query only the attribute values that are new to this hop.
+                    // Match nothing if no resolver in this weight level uses a new value. The filters of the higher
+                    // weight levels have no new values either, so every doc that this level could match was queried.
+                    resolversClause = populateDeltaResolversClause(job.input().model(), indexName, resolversGroup, job.attributes(), job.hopDeltaAttributes(), this.namedQueries);
+                    if (resolversClause.isEmpty())
+                        resolversClause = "{\"match_none\":{}}";
+                } else {
+                    resolversClause = populateResolversFilterTree(job.input().model(), indexName, this.resolversFilterTree, job.attributes(), this.namedQueries);
+                }
 
                 // If there are multiple levels of weight, then each lower weight group of resolvers must ensure
                 // that every higher weight resolver either matches or does not exist.
@@ -533,7 +694,7 @@ public class Query {
                             Map<String, Integer> parentCounts = countAttributesAcrossResolvers(job.input().model(), parentResolverGroup);
                             List<List<String>> parentResolverSorted = sortResolverAttributes(job.input().model(), parentResolverGroup, parentCounts);
                             TreeMap<String, TreeMap> parentResolverFilterTree = makeResolversFilterTree(parentResolverSorted);
-                            String parentResolverClause = populateResolversFilterTree(job.input().model(), indexName, parentResolverFilterTree, job.attributes(), job.namedFilters(), _nameIdCounter);
+                            String parentResolverClause = populateResolversFilterTree(job.input().model(), indexName, parentResolverFilterTree, job.attributes(), this.namedQueries);
 
                             // Construct a "should" clause for the above two clauses.
                             parentResolverClauses.add("{\"bool\":{\"should\":[" + attributesExistsClause + "," + parentResolverClause + "]}}");
@@ -689,7 +850,7 @@ public class Query {
                 Map<String, Integer> counts = countAttributesAcrossResolvers(job.input().model(), this.termResolvers);
                 List<List<String>> termResolversSorted = sortResolverAttributes(job.input().model(), this.termResolvers, counts);
                 this.termResolversFilterTree = makeResolversFilterTree(termResolversSorted);
-                termResolversClause = populateResolversFilterTree(job.input().model(), indexName, this.termResolversFilterTree, termAttributes, job.namedFilters(), _nameIdCounter);
+                termResolversClause = populateResolversFilterTree(job.input().model(), indexName, this.termResolversFilterTree, termAttributes, this.namedQueries);
             }
 
             // Combine the two resolvers clauses in a "filter" clause if both exist.
@@ -743,10 +904,10 @@ public class Query {
         }
         topLevelClauses.add(queryClause);
 
-        // Construct the "script_fields" clause.
-        String scriptFieldsClause = makeScriptFieldsClause(job.input(), indexName);
-        if (scriptFieldsClause != null)
-            topLevelClauses.add(scriptFieldsClause);
+        // Construct the "docvalue_fields" clause.
+        String docValueFieldsClause = makeDocValueFieldsClause(job.input(), indexName);
+        if (docValueFieldsClause != null)
+            topLevelClauses.add(docValueFieldsClause);
 
         // Construct the "size" clause.
         topLevelClauses.add("\"size\":" + job.maxDocsPerQuery());
@@ -764,6 +925,23 @@ public class Query {
         this.request = buildSearchRequest(job, indexName, this.query);
     }
 
+    public boolean canQueryIds() {
+        return this.canQueryIds;
+    }
+
+    public boolean canQueryTerms() {
+        return this.canQueryTerms;
+    }
+
+    /**
+     * The number of docs that were excluded from this query by _id when it was built.
+     *
+     * @return
+     */
+    public int excludedDocCount() {
+        return this.excludedDocCount;
+    }
+
     public String indexName() {
         return this.indexName;
     }
@@ -780,6 +958,15 @@ public class Query {
         return this.request;
     }
 
+    /**
+     * The named queries of this query, or null if the clauses of this query aren't named.
+     *
+     * @return
+     */
+    public NamedQueries namedQueries() {
+        return this.namedQueries;
+    }
+
     public List<String> resolvers() {
         return this.resolvers;
     }
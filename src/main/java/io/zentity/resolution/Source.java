@@ -0,0 +1,158 @@
+/*
+ * zentity
+ * Copyright © 2018-2025 Dave Moore
+ * https://zentity.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.zentity.resolution;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.zentity.common.Json;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.xcontent.XContentType;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Set;
+
+/**
+ * The "_source" of a search hit, read in one streaming pass.
+ *
+ * Only the keys that can lead to the value of an index field are read into a tree. Every other key is skipped
+ * without building a tree, unless the "_source" is also copied to compact json to be returned in the hit.
+ */
+final class Source {
+
+    private final JsonNode fields;
+    private final String json;
+
+    private Source(JsonNode fields, String json) {
+        this.fields = fields;
+        this.json = json;
+    }
+
+    /**
+     * The part of the "_source" that can hold the values of the index fields.
+     *
+     * @return
+     */
+    JsonNode fields() {
+        return this.fields;
+    }
+
+    /**
+     * The whole "_source" as compact json, or null if it wasn't copied.
+     *
+     * @return
+     */
+    String json() {
+        return this.json;
+    }
+
+    /**
+     * Read the "_source" of a search hit.
+     *
+     * @param hit  The search hit.
+     * @param keys The keys that can lead to the value of an index field.
+     * @param copy Whether to copy the whole "_source" to compact json.
+     * @return The "_source" of the search hit, or null if it has none.
+     * @throws IOException
+     */
+    static Source read(SearchHit hit, Set<String> keys, boolean copy) throws IOException {
+        if (!hit.hasSource())
+            return null;
+        BytesReference bytes = hit.getSourceRef();
+        if (XContentHelper.xContentType(bytes) != XContentType.JSON) {
+            JsonNode source = Json.ORDERED_MAPPER.readTree(hit.getSourceAsString());
+            return new Source(source, copy ? source.toString() : null);
+        }
+        BytesRef bytesRef = bytes.toBytesRef();
+        try (JsonParser parser = Json.ORDERED_MAPPER.getFactory().createParser(bytesRef.bytes, bytesRef.offset, bytesRef.length)) {
+            return read(parser, keys, copy);
+        }
+    }
+
+    /**
+     * Read a json object from a parser.
+     *
+     * @param parser The parser of the json object.
+     * @param keys   The keys that can lead to the value of an index field.
+     * @param copy   Whether to copy the whole json object to compact json.
+     * @return
+     * @throws IOException
+     */
+    static Source read(JsonParser parser, Set<String> keys, boolean copy) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            JsonNode source = Json.ORDERED_MAPPER.readTree(parser);
+            return new Source(source, copy ? source.toString() : null);
+        }
+        if (!copy)
+            return new Source(readObject(parser, null, keys), null);
+        StringWriter writer = new StringWriter();
+        JsonNode fields;
+        try (JsonGenerator generator = Json.ORDERED_MAPPER.getFactory().createGenerator(writer)) {
+            fields = readObject(parser, generator, keys);
+        }
+        return new Source(fields, writer.toString());
+    }
+
+    private static ObjectNode readObject(JsonParser parser, JsonGenerator generator, Set<String> keys) throws IOException {
+        ObjectNode node = Json.ORDERED_MAPPER.createObjectNode();
+        if (generator != null)
+            generator.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.currentName();
+            parser.nextToken();
+            if (generator != null)
+                generator.writeFieldName(key);
+            if (keys.contains(key))
+                node.set(key, readValue(parser, generator, keys));
+            else if (generator != null)
+                generator.copyCurrentStructure(parser);
+            else
+                parser.skipChildren();
+        }
+        if (generator != null)
+            generator.writeEndObject();
+        return node;
+    }
+
+    private static JsonNode readValue(JsonParser parser, JsonGenerator generator, Set<String> keys) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                return readObject(parser, generator, keys);
+            case START_ARRAY:
+                ArrayNode node = Json.ORDERED_MAPPER.createArrayNode();
+                if (generator != null)
+                    generator.writeStartArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY)
+                    node.add(readValue(parser, generator, keys));
+                if (generator != null)
+                    generator.writeEndArray();
+                return node;
+            default:
+                if (generator != null)
+                    generator.copyCurrentEvent(parser);
+                return Json.ORDERED_MAPPER.readTree(parser);
+        }
+    }
+}
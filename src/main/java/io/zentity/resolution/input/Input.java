@@ -64,7 +64,7 @@ public class Input {
      *
      * @param model   The entity model.
      * @param indices Names of indices from "scope.exclude.indices" to exclude in the entity model.
-     * @return Updated entity model.
+     * @return View of the entity model.
      * @throws ValidationException
      */
     public static Model excludeIndices(Model model, Set<String> indices) throws ValidationException {
@@ -74,8 +74,8 @@ public class Input {
                     continue;
                 if (!model.indices().containsKey(index))
                     throw new ValidationException("'" + index + "' is not in the 'indices' field of the entity model.");
-                model.indices().remove(index);
             }
+            model = model.scope(index -> !indices.contains(index), resolver -> true);
         }
         return model;
     }
@@ -85,7 +85,7 @@ public class Input {
      *
      * @param model   The entity model.
      * @param indices Names of indices from "scope.include.indices" to include in the entity model.
-     * @return Updated entity model.
+     * @return View of the entity model.
      * @throws ValidationException
      */
     public static Model includeIndices(Model model, Set<String> indices) throws ValidationException {
@@ -96,7 +96,7 @@ public class Input {
                 if (!model.indices().containsKey(index))
                     throw new ValidationException("'" + index + "' is not in the 'indices' field of the entity model.");
             }
-            model.indices().keySet().retainAll(indices);
+            model = model.scope(indices::contains, resolver -> true);
         }
         return model;
     }
@@ -106,7 +106,7 @@ public class Input {
      *
      * @param model     The entity model.
      * @param resolvers Names of resolvers from "scope.exclude.resolvers" to exclude in the entity model.
-     * @return Updated entity model.
+     * @return View of the entity model.
      * @throws ValidationException
      */
     public static Model excludeResolvers(Model model, Set<String> resolvers) throws ValidationException {
@@ -116,8 +116,8 @@ public class Input {
                     continue;
                 if (!model.resolvers().containsKey(resolver))
                     throw new ValidationException("'" + resolver + "' is not in the 'resolvers' field of the entity model.");
-                model.resolvers().remove(resolver);
             }
+            model = model.scope(index -> true, resolver -> !resolvers.contains(resolver));
         }
         return model;
     }
@@ -127,7 +127,7 @@ public class Input {
      *
      * @param model     The entity model.
      * @param resolvers Names of resolvers from "scope.include.resolvers" to include in the entity model.
-     * @return Updated entity model.
+     * @return View of the entity model.
      * @throws ValidationException
      */
     public static Model includeResolvers(Model model, Set<String> resolvers) throws ValidationException {
@@ -138,7 +138,7 @@ public class Input {
                 if (!model.resolvers().containsKey(resolver))
                     throw new ValidationException("'" + resolver + "' is not in the 'resolvers' field of the entity model.");
             }
-            model.resolvers().keySet().retainAll(resolvers);
+            model = model.scope(index -> true, resolvers::contains);
         }
         return model;
     }
@@ -355,11 +355,11 @@ public class Input {
             // Parse and validate the "scope"."include" field of the request body.
             if (this.scope.include() != null) {
 
-                // Remove any resolvers of the entity model that do not appear in "scope.include.resolvers".
+                // Limit the entity model to the resolvers that appear in "scope.include.resolvers".
                 if (!this.scope.include().resolvers().isEmpty())
                     this.model = includeResolvers(this.model, this.scope.include().resolvers());
 
-                // Remove any indices of the entity model that do not appear in "scope.include.indices".
+                // Limit the entity model to the indices that appear in "scope.include.indices".
                 if (!this.scope.include().indices().isEmpty())
                     this.model = includeIndices(this.model, this.scope.include().indices());
             }
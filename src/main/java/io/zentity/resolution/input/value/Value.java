@@ -81,9 +81,19 @@ public abstract class Value implements ValueInterface {
         return this.serialized;
     }
 
+    /**
+     * Order values by their serialized forms, and then by their classes, so that the order is consistent with
+     * {@link #equals(Object)}. Values of different types that serialize the same are distinct in sorted sets.
+     *
+     * @param o The other value.
+     * @return
+     */
     @Override
     public int compareTo(Value o) {
-        return this.serialized.compareTo(o.serialized);
+        int compared = this.serialized.compareTo(o.serialized);
+        if (compared != 0 || this.getClass() == o.getClass())
+            return compared;
+        return this.getClass().getName().compareTo(o.getClass().getName());
     }
 
     @Override
@@ -92,7 +102,13 @@ public abstract class Value implements ValueInterface {
     }
 
     @Override
-    public boolean equals(Object o) { return this.hashCode() == o.hashCode(); }
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || this.getClass() != o.getClass())
+            return false;
+        return this.serialized.equals(((Value) o).serialized);
+    }
 
     @Override
     public int hashCode() { return this.serialized.hashCode(); }
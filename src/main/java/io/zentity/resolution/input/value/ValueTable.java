@@ -0,0 +1,96 @@
+/*
+ * zentity
+ * Copyright © 2018-2025 Dave Moore
+ * https://zentity.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.zentity.resolution.input.value;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.zentity.model.ValidationException;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns the attribute values of a resolution job, so that a value that is found in many documents and hops
+ * is held by one instance instead of one instance for each time it was found.
+ *
+ * Not thread safe. A resolution job processes one search response at a time.
+ */
+public class ValueTable implements Accountable {
+
+    // Estimated heap usage of an entry of a hash map and the objects that it refers to, excluding the serialized value.
+    private static final long ENTRY_BYTES = 128;
+
+    private final Map<String, Map<JsonNode, Value>> nodes = new HashMap<>();
+    private final Map<Value, Value> values = new HashMap<>();
+    private long bytes = 0;
+
+    /**
+     * Get the value of an attribute type, creating it only if an equal value hasn't been seen before.
+     *
+     * @param attributeType Attribute type.
+     * @param value         Attribute value.
+     * @return The interned value.
+     * @throws ValidationException
+     */
+    public Value intern(String attributeType, JsonNode value) throws ValidationException {
+        Map<JsonNode, Value> nodes = this.nodes.computeIfAbsent(attributeType, k -> new HashMap<>());
+        Value interned = nodes.get(value);
+        if (interned == null) {
+
+            // Different nodes can serialize to the same value, such as an int and a long.
+            // The memory of a new value is accounted once, when it is interned.
+            Value created = Value.create(attributeType, value);
+            interned = this.intern(created);
+            nodes.put(value, interned);
+        }
+        return interned;
+    }
+
+    /**
+     * Add a value that was created elsewhere, such as a value of the input, so that equal values share its instance.
+     *
+     * @param value The value.
+     * @return The interned value.
+     */
+    public Value intern(Value value) {
+        Value interned = this.values.putIfAbsent(value, value);
+        if (interned != null)
+            return interned;
+        this.bytes += entryBytes(value);
+        return value;
+    }
+
+    static long entryBytes(Value value) {
+        return ENTRY_BYTES + RamUsageEstimator.sizeOf(value.serialized());
+    }
+
+    /**
+     * Estimate the heap usage of the interned values, which grows with each distinct value found by a resolution job.
+     *
+     * @return The estimated number of bytes.
+     */
+    @Override
+    public long ramBytesUsed() {
+        return this.bytes;
+    }
+
+    public int size() {
+        return this.values.size();
+    }
+}
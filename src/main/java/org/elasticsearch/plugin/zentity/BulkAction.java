@@ -21,10 +21,29 @@ import io.zentity.common.Json;
 import io.zentity.common.Patterns;
 import io.zentity.common.StreamUtil;
 import joptsimple.internal.Strings;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.bytes.ReleasableBytesReference;
+import org.elasticsearch.common.recycler.Recycler;
+import org.elasticsearch.core.CheckedConsumer;
+import org.elasticsearch.core.Releasable;
+import org.elasticsearch.core.Releasables;
 import org.elasticsearch.core.Tuple;
+import org.elasticsearch.rest.ChunkedRestResponseBodyPart;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 
 public class BulkAction {
@@ -46,6 +65,17 @@ public class BulkAction {
             .collect(Collectors.toList());
     }
 
+    /**
+     * Read an NDJSON-formatted request body as pairs of params and payloads.
+     * The body is validated up front, but each pair is decoded only when it is consumed.
+     *
+     * @param body NDJSON-formatted request body.
+     * @return
+     */
+    static BulkEntries readBulkEntries(BytesReference body) {
+        return new BulkEntries(body);
+    }
+
     /**
      * Serialize the response of a bulk request.
      *
@@ -60,6 +90,342 @@ public class BulkAction {
             "}";
     }
 
+    /**
+     * An iterator over the pairs of params and payloads of an NDJSON-formatted request body.
+     * Lines are separated by "\n" or "\r\n", and trailing empty lines are ignored, as in {@link #splitBulkEntries}.
+     *
+     * The entries hold a reference to the body until they are closed. The body of a request is released when its
+     * response is sent, and a streaming response is sent before every entry has been read.
+     */
+    static final class BulkEntries implements Iterator<Tuple<String, String>>, Releasable {
+        private final BytesReference body;
+        private final Releasable release;
+        private final int end;
+        private final int size;
+        private int position = 0;
+
+        BulkEntries(BytesReference body) {
+            this.body = body;
+            int end = body.length();
+            while (end > 0 && body.get(end - 1) == '\n') {
+                end--;
+                if (end > 0 && body.get(end - 1) == '\r')
+                    end--;
+            }
+            this.end = end;
+            int lines = 0;
+            if (end > 0) {
+                lines = 1;
+                for (int i = body.indexOf((byte) '\n', 0); i >= 0 && i < end; i = body.indexOf((byte) '\n', i + 1))
+                    lines++;
+            }
+            if (lines % 2 != 0)
+                throw new BadRequestException("Bulk request must have repeating pairs of params and payloads on separate lines.");
+            this.size = lines / 2;
+            if (body instanceof ReleasableBytesReference)
+                this.release = Releasables.releaseOnce(((ReleasableBytesReference) body).retain());
+            else
+                this.release = () -> {};
+        }
+
+        /**
+         * Release the body once every entry that will be read has been read.
+         */
+        @Override
+        public void close() {
+            this.release.close();
+        }
+
+        /**
+         * @return The number of pairs of params and payloads.
+         */
+        int size() {
+            return this.size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.position < this.end;
+        }
+
+        @Override
+        public Tuple<String, String> next() {
+            if (!this.hasNext())
+                throw new NoSuchElementException();
+            String params = this.nextLine();
+            String payload = this.nextLine();
+            return Tuple.tuple(params, payload);
+        }
+
+        private String nextLine() {
+            int newline = this.body.indexOf((byte) '\n', this.position);
+            int lineEnd = newline < 0 || newline > this.end ? this.end : newline;
+            int next = lineEnd + 1;
+            if (lineEnd > this.position && this.body.get(lineEnd - 1) == '\r')
+                lineEnd--;
+            String line = this.body.slice(this.position, lineEnd - this.position).utf8ToString();
+            this.position = next;
+            return line;
+        }
+    }
+
+    /**
+     * Serialize the response of a single operation of a bulk request as a line of a streaming bulk response.
+     *
+     * @param ordinal The position of the operation in the bulk request.
+     * @param result  The result of the operation.
+     * @return
+     * @throws IOException
+     */
+    static String bulkItemToJson(int ordinal, SingleResult result) throws IOException {
+        String response = result.response;
+
+        // A pretty response would span many lines.
+        if (response.indexOf('\n') >= 0)
+            response = Json.MAPPER.readTree(response).toString();
+        return "{" +
+            Json.quoteString("item") + ":" + ordinal +
+            "," + Json.quoteString("failed") + ":" + result.failed +
+            "," + Json.quoteString("response") + ":" + response +
+            "}";
+    }
+
+    /**
+     * A bulk response that is streamed to the client as NDJSON. Each line holds the response of one operation, tagged
+     * with the position of the operation in the bulk request, and is sent as soon as the operation completes.
+     * The last line holds the "took", "errors", and "items" fields of the whole bulk request.
+     *
+     * The response is sent when the first operation completes, so that any failure before then is returned as an error
+     * response. Each part of the response holds the lines that completed since the previous part was sent.
+     *
+     * The lines wait in memory until the client reads them, so no more than {@link #MAX_PENDING_LINES} lines are held
+     * at once. Operations that would produce more lines are paused until the client catches up (see {@link #whenReady}).
+     */
+    static final class BulkResponseStream implements Releasable {
+
+        static final String CONTENT_TYPE = "application/x-ndjson";
+        static final int MAX_PENDING_LINES = 100;
+
+        private final RestChannel channel;
+        private final Deque<String> lines = new ArrayDeque<>();
+        private final Deque<Runnable> waiting = new ArrayDeque<>();
+        private ActionListener<ChunkedRestResponseBodyPart> nextPartListener;
+        private boolean started = false;
+        private boolean finished = false;
+        private boolean closed = false;
+        private boolean errors = false;
+        private int items = 0;
+
+        BulkResponseStream(RestChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Run an action once there is room for another line in the response, such as the next operation of the bulk
+         * request. The action runs at once unless the client has fallen behind, in which case it runs when the client
+         * reads the next part of the response.
+         *
+         * @param action The action to run.
+         */
+        void whenReady(Runnable action) {
+            synchronized (this) {
+                if (!this.closed && !this.finished && this.lines.size() + this.waiting.size() >= MAX_PENDING_LINES) {
+                    this.waiting.add(action);
+                    return;
+                }
+            }
+            action.run();
+        }
+
+        /**
+         * Stream the result of an operation.
+         *
+         * @param ordinal The position of the operation in the bulk request.
+         * @param result  The result of the operation.
+         * @throws IOException
+         */
+        void onItem(int ordinal, SingleResult result) throws IOException {
+            String line = bulkItemToJson(ordinal, result);
+            synchronized (this) {
+                this.items++;
+                if (result.failed)
+                    this.errors = true;
+            }
+            this.write(line, false);
+        }
+
+        /**
+         * Stream the summary of the bulk request and end the response.
+         *
+         * @param took The duration of the bulk request in milliseconds.
+         */
+        void onComplete(long took) {
+            String line;
+            synchronized (this) {
+                line = "{" +
+                    Json.quoteString("took") + ":" + took +
+                    "," + Json.quoteString("errors") + ":" + this.errors +
+                    "," + Json.quoteString("items") + ":" + this.items +
+                    "}";
+            }
+            this.write(line, true);
+        }
+
+        /**
+         * End the response with the failure of the bulk request. If the response has not been sent yet,
+         * then it never will be, and the failure must be returned to the client as an error response instead.
+         *
+         * @param e The failure.
+         * @return Whether the failure was streamed.
+         */
+        boolean onFailure(Exception e) {
+            synchronized (this) {
+                if (!this.started) {
+                    this.closed = true;
+                    return false;
+                }
+            }
+            String line = "{" +
+                Json.quoteString("errors") + ":true" +
+                "," + Json.quoteString("error") + ":{" +
+                    Json.quoteString("type") + ":" + Json.quoteString(e.getClass().getSimpleName()) +
+                    "," + Json.quoteString("reason") + ":" + Json.quoteString(String.valueOf(e.getMessage())) +
+                "}}";
+            this.write(line, true);
+            return true;
+        }
+
+        private void write(String line, boolean last) {
+            ChunkedRestResponseBodyPart part = null;
+            ActionListener<ChunkedRestResponseBodyPart> listener = null;
+            boolean start = false;
+            synchronized (this) {
+                if (this.closed || this.finished)
+                    return;
+                this.lines.add(line);
+                this.finished = last;
+                if (!this.started) {
+                    this.started = true;
+                    start = true;
+                    part = this.nextPart();
+                } else if (this.nextPartListener != null) {
+                    listener = this.nextPartListener;
+                    this.nextPartListener = null;
+                    part = this.nextPart();
+                }
+            }
+            if (start)
+                this.channel.sendResponse(RestResponse.chunked(RestStatus.OK, part, this));
+            else if (listener != null)
+                listener.onResponse(part);
+            this.runReady();
+        }
+
+        /**
+         * Run the actions that were waiting for room in the response, as far as there is room for them.
+         */
+        private void runReady() {
+            List<Runnable> ready;
+            synchronized (this) {
+                if (this.waiting.isEmpty())
+                    return;
+                int room = this.closed || this.finished ? this.waiting.size() : MAX_PENDING_LINES - this.lines.size();
+                ready = new ArrayList<>();
+                while (room-- > 0 && !this.waiting.isEmpty())
+                    ready.add(this.waiting.poll());
+            }
+            ready.forEach(Runnable::run);
+        }
+
+        /**
+         * Take the lines that are waiting to be sent as the next part of the response.
+         * Must be called while holding the lock of this stream, and only if there are lines waiting to be sent.
+         *
+         * @return
+         */
+        private ChunkedRestResponseBodyPart nextPart() {
+            List<String> partLines = new ArrayList<>(this.lines);
+            this.lines.clear();
+            return new Part(partLines, this.finished);
+        }
+
+        private void getNextPart(ActionListener<ChunkedRestResponseBodyPart> listener) {
+            ChunkedRestResponseBodyPart part = null;
+            synchronized (this) {
+                if (this.lines.isEmpty())
+                    this.nextPartListener = listener;
+                else
+                    part = this.nextPart();
+            }
+            if (part != null)
+                listener.onResponse(part);
+            this.runReady();
+        }
+
+        /**
+         * Stop streaming. The actions that were waiting for room in the response run at once, and their lines are dropped.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                this.closed = true;
+                this.lines.clear();
+                this.nextPartListener = null;
+            }
+            this.runReady();
+        }
+
+        private final class Part implements ChunkedRestResponseBodyPart {
+            private final ChunkedRestResponseBodyPart chunks;
+            private final boolean last;
+
+            private Part(List<String> lines, boolean last) {
+                Iterator<String> iterator = lines.iterator();
+                this.chunks = ChunkedRestResponseBodyPart.fromTextChunks(CONTENT_TYPE, new Iterator<CheckedConsumer<Writer, IOException>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public CheckedConsumer<Writer, IOException> next() {
+                        String line = iterator.next();
+                        return (writer) -> {
+                            writer.write(line);
+                            writer.write('\n');
+                        };
+                    }
+                });
+                this.last = last;
+            }
+
+            @Override
+            public boolean isPartComplete() {
+                return this.chunks.isPartComplete();
+            }
+
+            @Override
+            public boolean isLastPart() {
+                return this.last;
+            }
+
+            @Override
+            public void getNextPart(ActionListener<ChunkedRestResponseBodyPart> listener) {
+                BulkResponseStream.this.getNextPart(listener);
+            }
+
+            @Override
+            public ReleasableBytesReference encodeChunk(int sizeHint, Recycler<BytesRef> recycler) throws IOException {
+                return this.chunks.encodeChunk(sizeHint, recycler);
+            }
+
+            @Override
+            public String getResponseContentTypeString() {
+                return CONTENT_TYPE;
+            }
+        }
+    }
+
     /**
      * Small wrapper around a single response for a bulk request.
      */
@@ -0,0 +1,151 @@
+/*
+ * zentity
+ * Copyright © 2018-2025 Dave Moore
+ * https://zentity.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.plugin.zentity;
+
+import io.zentity.model.Model;
+import io.zentity.model.ValidationException;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A node-local cache of the entity models that were retrieved from the '.zentity-models' index,
+ * parsed, and validated for resolution jobs.
+ *
+ * Each entity model is still retrieved for each resolution job. This respects the privileges of the user on the
+ * '.zentity-models' index, and it reveals any change that was made to the entity model on another node.
+ * The cache reuses the parsed entity model if its document has the same sequence number, primary term, and source
+ * as the document that was retrieved. The source is compared because the sequence numbers restart if the index is
+ * recreated. Otherwise the document is parsed, validated, and cached in place of the old one.
+ */
+public class ModelCache {
+
+    public static final Setting<Integer> SIZE_SETTING = Setting.intSetting(
+            "zentity.resolution.model_cache.size", 1000, 0, Setting.Property.NodeScope);
+    public static final Setting<TimeValue> EXPIRE_SETTING = Setting.positiveTimeSetting(
+            "zentity.resolution.model_cache.expire", TimeValue.timeValueHours(1), Setting.Property.NodeScope);
+
+    private final Cache<String, CachedModel> cache;
+    private final boolean enabled;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ModelCache(Settings settings) {
+        int size = SIZE_SETTING.get(settings);
+        TimeValue expire = EXPIRE_SETTING.get(settings);
+        CacheBuilder<String, CachedModel> builder = CacheBuilder.<String, CachedModel>builder().setMaximumWeight(Math.max(size, 1));
+        if (expire.nanos() > 0)
+            builder.setExpireAfterAccess(expire);
+        this.cache = builder.build();
+        this.enabled = size > 0;
+    }
+
+    public static List<Setting<?>> settings() {
+        return List.of(SIZE_SETTING, EXPIRE_SETTING);
+    }
+
+    /**
+     * An entity model and the version of the document that it was parsed from.
+     */
+    private static final class CachedModel {
+        private final long seqNo;
+        private final long primaryTerm;
+        private final BytesReference source;
+        private final Model model;
+
+        private CachedModel(long seqNo, long primaryTerm, BytesReference source, Model model) {
+            this.seqNo = seqNo;
+            this.primaryTerm = primaryTerm;
+            this.source = source;
+            this.model = model;
+        }
+
+        private boolean matches(GetResponse response) {
+            return this.seqNo == response.getSeqNo() && this.primaryTerm == response.getPrimaryTerm() && this.source.equals(response.getSourceAsBytesRef());
+        }
+    }
+
+    /**
+     * Get the entity model of a document that was retrieved from the '.zentity-models' index.
+     * The entity model is parsed and validated for resolution jobs only if it isn't already cached at this version.
+     *
+     * The returned entity model is unmodifiable and may be shared by any number of resolution jobs.
+     *
+     * @param entityType The entity type.
+     * @param response   The response of the request that retrieved the entity model.
+     * @return The entity model.
+     * @throws ValidationException
+     * @throws IOException
+     */
+    public Model get(String entityType, GetResponse response) throws ValidationException, IOException {
+        if (!this.enabled)
+            return new Model(response.getSourceAsString(), true);
+        CachedModel cached = this.cache.get(entityType);
+        if (cached != null && cached.matches(response)) {
+            this.hits.increment();
+            return cached.model;
+        }
+        this.misses.increment();
+        Model model = new Model(response.getSourceAsString(), true);
+        BytesReference source = new BytesArray(BytesReference.toBytes(response.getSourceAsBytesRef()));
+        this.cache.put(entityType, new CachedModel(response.getSeqNo(), response.getPrimaryTerm(), source, model));
+        return model;
+    }
+
+    /**
+     * Remove the entity model of an entity type from the cache, such as after it has been changed or deleted.
+     *
+     * @param entityType The entity type.
+     */
+    public void invalidate(String entityType) {
+        this.cache.invalidate(entityType);
+    }
+
+    /**
+     * Remove every entity model from the cache.
+     */
+    public void invalidateAll() {
+        this.cache.invalidateAll();
+    }
+
+    /**
+     * Write the statistics of the cache.
+     *
+     * @param content The builder to write to.
+     * @throws IOException
+     */
+    public void stats(XContentBuilder content) throws IOException {
+        content.startObject("model_cache");
+        content.field("enabled", this.enabled);
+        content.field("size", this.cache.count());
+        content.field("hits", this.hits.sum());
+        content.field("misses", this.misses.sum());
+        content.field("evictions", this.cache.stats().getEvictions());
+        content.endObject();
+    }
+}
@@ -37,6 +37,7 @@ import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.internal.Client;
 import org.elasticsearch.client.internal.node.NodeClient;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.xcontent.ChunkedToXContent;
@@ -82,6 +83,15 @@ public class ModelsAction extends BaseRestHandler {
     // Default parameter values
     public static final boolean DEFAULT_PRETTY = false;
 
+    private final ModelCache modelCache;
+
+    /**
+     * @param modelCache The cache of parsed entity models, which is invalidated when an entity model is changed.
+     */
+    public ModelsAction(ModelCache modelCache) {
+        this.modelCache = modelCache;
+    }
+
     @Override
     public List<Route> routes() {
         return List.of(
@@ -109,7 +119,7 @@ public class ModelsAction extends BaseRestHandler {
      * @param client     The client that will communicate with Elasticsearch.
      * @param onComplete The action to perform after the index creation request completes.
      */
-    public static void createIndex(NodeClient client, ActionListener<ActionResponse> onComplete) {
+    public static void createIndex(Client client, ActionListener<ActionResponse> onComplete) {
         SetupAction.createIndex(client, new ActionListener<>() {
 
             @Override
@@ -278,7 +288,7 @@ public class ModelsAction extends BaseRestHandler {
      * @param client     The client that will communicate with Elasticsearch.
      * @param onComplete The action to perform after the get request completes.
      */
-    public static void getEntityModel(String entityType, NodeClient client, ActionListener<GetResponse> onComplete) {
+    public static void getEntityModel(String entityType, Client client, ActionListener<GetResponse> onComplete) {
 
         // Retrieve one entity model from the .zentity-models index.
         client.prepareGet(INDEX_NAME, entityType).execute(new ActionListener<>() {
@@ -349,7 +359,7 @@ public class ModelsAction extends BaseRestHandler {
      *                          Set to 'false' when using bulk operations to prevent redundant checks.
      * @param onComplete        The action to perform after indexing the entity model.
      */
-    public static void indexEntityModel(String entityType, String requestBody, NodeClient client, boolean isBulkRequest, ActionListener<DocWriteResponse> onComplete) throws ValidationException, IOException {
+    public void indexEntityModel(String entityType, String requestBody, NodeClient client, boolean isBulkRequest, ActionListener<DocWriteResponse> onComplete) throws ValidationException, IOException {
 
         // Validate inputs
         if (entityType == null || entityType.equals(""))
@@ -375,7 +385,7 @@ public class ModelsAction extends BaseRestHandler {
                             .setSource(requestBody, XContentType.JSON)
                             .setCreate(true)
                             .setRefreshPolicy(refreshPolicy)
-                            .execute(onComplete);
+                            .execute(ActionListener.runBefore(onComplete, () -> modelCache.invalidate(entityType)));
                 } catch (Exception e) {
 
                     // An error occurred when indexing the entity model.
@@ -410,7 +420,7 @@ public class ModelsAction extends BaseRestHandler {
      *                          Set to 'false' when using bulk operations to prevent redundant checks.
      * @param onComplete        The action to perform after updating the entity model.
      */
-    public static void updateEntityModel(String entityType, String requestBody, NodeClient client, boolean isBulkRequest, ActionListener<DocWriteResponse> onComplete) throws ValidationException, IOException {
+    public void updateEntityModel(String entityType, String requestBody, NodeClient client, boolean isBulkRequest, ActionListener<DocWriteResponse> onComplete) throws ValidationException, IOException {
 
         // Validate inputs
         if (entityType == null || entityType.equals(""))
@@ -436,7 +446,7 @@ public class ModelsAction extends BaseRestHandler {
                             .setSource(requestBody, XContentType.JSON)
                             .setCreate(false)
                             .setRefreshPolicy(refreshPolicy)
-                            .execute(onComplete);
+                            .execute(ActionListener.runBefore(onComplete, () -> modelCache.invalidate(entityType)));
                 } catch (Exception e) {
 
                     // An error occurred when updating the entity model.
@@ -470,7 +480,7 @@ public class ModelsAction extends BaseRestHandler {
      *                          Set to 'false' when using bulk operations to prevent redundant checks.
      * @param onComplete        The action to perform after deleting the entity model.
      */
-    public static void deleteEntityModel(String entityType, NodeClient client, boolean isBulkRequest, ActionListener<DeleteResponse> onComplete) throws ValidationException {
+    public void deleteEntityModel(String entityType, NodeClient client, boolean isBulkRequest, ActionListener<DeleteResponse> onComplete) throws ValidationException {
 
         // Validate inputs
         if (entityType == null || entityType.equals(""))
@@ -489,7 +499,7 @@ public class ModelsAction extends BaseRestHandler {
                         refreshPolicy = WriteRequest.RefreshPolicy.NONE;
                     client.prepareDelete(INDEX_NAME, entityType)
                             .setRefreshPolicy(refreshPolicy)
-                            .execute(onComplete);
+                            .execute(ActionListener.runBefore(onComplete, () -> modelCache.invalidate(entityType)));
                 } catch (Exception e) {
 
                     // An error occurred when deleting the entity model.
@@ -529,7 +539,7 @@ public class ModelsAction extends BaseRestHandler {
      * @throws ValidationException
      * @throws IOException
      */
-    static void runOperation(NodeClient client, Method method, String body, Map<String, String> params, Map<String, String> reqParams, boolean isBulkRequest, ActionListener<XContentBuilder> onComplete) throws NotImplementedException, ValidationException, IOException {
+    void runOperation(NodeClient client, Method method, String body, Map<String, String> params, Map<String, String> reqParams, boolean isBulkRequest, ActionListener<XContentBuilder> onComplete) throws NotImplementedException, ValidationException, IOException {
         final String entityType = ParamsUtil.optString(ModelsAction.PARAM_ENTITY_TYPE, null, params, reqParams);
         final boolean pretty = ParamsUtil.optBoolean(PARAM_PRETTY, DEFAULT_PRETTY, reqParams, emptyMap());
 
@@ -756,7 +766,7 @@ public class ModelsAction extends BaseRestHandler {
      * @param reqParams The parameters map for the entire request. Overridden by any params from entries.
      * @param listener The listener for completion results.
      */
-    static void executeBulk(NodeClient client, List<Tuple<String, String>> entries, Map<String, String> reqParams, ActionListener<Collection<BulkAction.SingleResult>> listener) {
+    void executeBulk(NodeClient client, List<Tuple<String, String>> entries, Map<String, String> reqParams, ActionListener<Collection<BulkAction.SingleResult>> listener) {
 
         // Process a single bulk entry.
         BiConsumer<Tuple<String, String>, ActionListener<BulkAction.SingleResult>> operationRunner = (tuple, delegate) -> {
@@ -882,7 +892,7 @@ public class ModelsAction extends BaseRestHandler {
      * @param reqParams The parameters map for the entire request. Overridden by any params from entries.
      * @param onComplete The listener for completion results.
      */
-    static void runBulk(NodeClient client, List<Tuple<String, String>> entries, Map<String, String> reqParams, ActionListener<BulkAction.BulkResult> onComplete) {
+    void runBulk(NodeClient client, List<Tuple<String, String>> entries, Map<String, String> reqParams, ActionListener<BulkAction.BulkResult> onComplete) {
         final long startTime = System.nanoTime();
 
         executeBulk(client, entries, reqParams, onComplete.delegateFailure(
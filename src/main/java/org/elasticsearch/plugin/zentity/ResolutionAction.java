@@ -26,14 +26,22 @@ import io.zentity.resolution.input.Input;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.core.Tuple;
+import org.elasticsearch.http.HttpChannel;
 import org.elasticsearch.rest.BaseRestHandler;
 import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.rest.RestResponse;
 import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.rest.action.RestCancellableNodeClient;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
@@ -42,6 +50,7 @@ import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static org.elasticsearch.rest.RestRequest.Method.POST;
 
@@ -51,7 +60,9 @@ public class ResolutionAction extends BaseRestHandler {
     private static final int MAX_CONCURRENT_JOBS_PER_REQUEST = BulkAction.MAX_CONCURRENT_OPERATIONS_PER_REQUEST;
 
     // All parameters known to the request
+    private static final String PARAM_DELTA_QUERIES = "delta_queries";
     private static final String PARAM_ENTITY_TYPE = "entity_type";
+    private static final String PARAM_EXCLUDE_DOCS = "exclude_docs";
     private static final String PARAM_PRETTY = "pretty";
     private static final String PARAM_INCLUDE_ATTRIBUTES = "_attributes";
     private static final String PARAM_INCLUDE_ERROR_TRACE = "error_trace";
@@ -62,16 +73,54 @@ public class ResolutionAction extends BaseRestHandler {
     private static final String PARAM_INCLUDE_SEQ_NO_PRIMARY_TERM = "_seq_no_primary_term";
     private static final String PARAM_INCLUDE_SOURCE = "_source";
     private static final String PARAM_INCLUDE_VERSION = "_version";
+    private static final String PARAM_MAX_BYTES = "max_bytes";
+    private static final String PARAM_MAX_DOCS = "max_docs";
     private static final String PARAM_MAX_DOCS_PER_QUERY = "max_docs_per_query";
     private static final String PARAM_MAX_HOPS = "max_hops";
+    private static final String PARAM_MAX_TIME = "max_time";
     private static final String PARAM_MAX_TIME_PER_QUERY = "max_time_per_query";
     private static final String PARAM_PROFILE = "profile";
     private static final String PARAM_SEARCH_ALLOW_PARTIAL_SEARCH_RESULTS = "search.allow_partial_search_results";
     private static final String PARAM_SEARCH_BATCHED_REDUCE_SIZE = "search.batched_reduce_size";
+    private static final String PARAM_SEARCH_MAX_CONCURRENT_SEARCHES = "search.max_concurrent_searches";
     private static final String PARAM_SEARCH_MAX_CONCURRENT_SHARD_REQUESTS = "search.max_concurrent_shard_requests";
+    private static final String PARAM_SEARCH_MSEARCH = "search.msearch";
+    private static final String PARAM_SEARCH_PAGINATE = "search.paginate";
+    private static final String PARAM_SEARCH_PARALLEL = "search.parallel";
     private static final String PARAM_SEARCH_PRE_FILTER_SHARD_SIZE = "search.pre_filter_shard_size";
     private static final String PARAM_SEARCH_REQUEST_CACHE = "search.request_cache";
     private static final String PARAM_SEARCH_PREFERENCE = "search.preference";
+    private static final String PARAM_STREAM = "stream";
+
+    /**
+     * The client of the resolution jobs of a request. Each search of the jobs runs as a task that is bound to the HTTP
+     * channel of the request, so the searches that are in flight are cancelled if the channel is closed, such as when
+     * the client disconnects or times out. The jobs stop scheduling searches once the channel is closed.
+     */
+    static class JobClient extends RestCancellableNodeClient {
+        private final HttpChannel httpChannel;
+
+        JobClient(NodeClient client, HttpChannel httpChannel) {
+            super(client, httpChannel);
+            this.httpChannel = httpChannel;
+        }
+
+        boolean isCancelled() {
+            return !this.httpChannel.isOpen();
+        }
+    }
+
+    private final ModelCache modelCache;
+    private final CircuitBreaker requestBreaker;
+
+    /**
+     * @param modelCache     The cache of parsed entity models, which the jobs use to reuse entity models that haven't changed.
+     * @param requestBreaker The request circuit breaker of the node, which accounts the memory held by the jobs.
+     */
+    public ResolutionAction(ModelCache modelCache, CircuitBreaker requestBreaker) {
+        this.modelCache = modelCache;
+        this.requestBreaker = requestBreaker;
+    }
 
     @Override
     public List<Route> routes() {
@@ -89,24 +138,37 @@ public class ResolutionAction extends BaseRestHandler {
     }
 
     /**
-     * Retrieve a serialized entity model.
+     * Retrieve an entity model.
      *
      * @param client     The client that will communicate with Elasticsearch.
      * @param entityType The entity type.
      * @param onComplete The action to perform after retrieving the entity model.
      */
-    static void getModelString(NodeClient client, String entityType, ActionListener<String> onComplete) {
+    static void getModelResponse(JobClient client, String entityType, ActionListener<GetResponse> onComplete) {
         ModelsAction.getEntityModel(entityType, client, ActionListener.wrap(
                 (res) -> {
                     if (!res.isExists())
                         throw new NotFoundException("Entity type '" + entityType + "' not found.");
-                    String modelString = res.getSourceAsString();
-                    onComplete.onResponse(modelString);
+                    onComplete.onResponse(res);
                 },
                 onComplete::onFailure
         ));
     }
 
+    /**
+     * Retrieve an entity model and parse it, or reuse the parsed entity model from the cache if it hasn't changed.
+     *
+     * @param client     The client that will communicate with Elasticsearch.
+     * @param entityType The entity type.
+     * @param onComplete The action to perform after retrieving the entity model.
+     */
+    void getModel(JobClient client, String entityType, ActionListener<Model> onComplete) {
+        getModelResponse(client, entityType, ActionListener.wrap(
+                (res) -> onComplete.onResponse(this.modelCache.get(entityType, res)),
+                onComplete::onFailure
+        ));
+    }
+
     /**
      * Construct and return a Job object.
      *
@@ -116,10 +178,14 @@ public class ResolutionAction extends BaseRestHandler {
      * @param reqParams The parameters of the request.
      * @return Job
      */
-    static Job buildJob(NodeClient client, Input input, Map<String, String> params, Map<String, String> reqParams) {
+    Job buildJob(JobClient client, Input input, Map<String, String> params, Map<String, String> reqParams) {
 
         // Parse the request params that will be passed to the job configuration
         final boolean pretty = ParamsUtil.optBoolean(PARAM_PRETTY, Job.DEFAULT_PRETTY, params, reqParams);
+        final boolean deltaQueries = ParamsUtil.optBoolean(PARAM_DELTA_QUERIES, Job.DEFAULT_DELTA_QUERIES, params, reqParams);
+        final String excludeDocs = ParamsUtil.optString(PARAM_EXCLUDE_DOCS, Job.DEFAULT_EXCLUDE_DOCS, params, reqParams);
+        if (!Job.EXCLUDE_DOCS_STRATEGIES.contains(excludeDocs))
+            throw new BadRequestException("'" + PARAM_EXCLUDE_DOCS + "' must be 'all', 'hop', or 'none'.");
         final boolean includeAttributes = ParamsUtil.optBoolean(PARAM_INCLUDE_ATTRIBUTES, Job.DEFAULT_INCLUDE_ATTRIBUTES, params, reqParams);
         final boolean includeErrorTrace = ParamsUtil.optBoolean(PARAM_INCLUDE_ERROR_TRACE, Job.DEFAULT_INCLUDE_ERROR_TRACE, params, reqParams);
         final boolean includeExplanation = ParamsUtil.optBoolean(PARAM_INCLUDE_EXPLANATION, Job.DEFAULT_INCLUDE_EXPLANATION, params, reqParams);
@@ -129,22 +195,39 @@ public class ResolutionAction extends BaseRestHandler {
         final boolean includeSeqNoPrimaryTerm = ParamsUtil.optBoolean(PARAM_INCLUDE_SEQ_NO_PRIMARY_TERM, Job.DEFAULT_INCLUDE_SEQ_NO_PRIMARY_TERM, params, reqParams);
         final boolean includeSource = ParamsUtil.optBoolean(PARAM_INCLUDE_SOURCE, Job.DEFAULT_INCLUDE_SOURCE, params, reqParams);
         final boolean includeVersion = ParamsUtil.optBoolean(PARAM_INCLUDE_VERSION, Job.DEFAULT_INCLUDE_VERSION, params, reqParams);
+        final String maxBytes = ParamsUtil.optString(PARAM_MAX_BYTES, null, params, reqParams);
+        final int maxDocs = ParamsUtil.optInteger(PARAM_MAX_DOCS, Job.DEFAULT_MAX_DOCS, params, reqParams);
         final int maxDocsPerQuery = ParamsUtil.optInteger(PARAM_MAX_DOCS_PER_QUERY, Job.DEFAULT_MAX_DOCS_PER_QUERY, params, reqParams);
         final int maxHops = ParamsUtil.optInteger(PARAM_MAX_HOPS, Job.DEFAULT_MAX_HOPS, params, reqParams);
+        final String maxTime = ParamsUtil.optString(PARAM_MAX_TIME, null, params, reqParams);
         final String maxTimePerQuery = ParamsUtil.optString(PARAM_MAX_TIME_PER_QUERY, Job.DEFAULT_MAX_TIME_PER_QUERY, params, reqParams);
         final boolean profile = ParamsUtil.optBoolean(PARAM_PROFILE, Job.DEFAULT_PROFILE, params, reqParams);
 
         // Parse any optional search parameters that will be passed to the job configuration.
         final Boolean searchAllowPartialSearchResults = ParamsUtil.optBoolean(PARAM_SEARCH_ALLOW_PARTIAL_SEARCH_RESULTS, null, params, reqParams);
         final Integer searchBatchedReduceSize = ParamsUtil.optInteger(PARAM_SEARCH_BATCHED_REDUCE_SIZE, null, params, reqParams);
+        final Integer searchMaxConcurrentSearches = ParamsUtil.optInteger(PARAM_SEARCH_MAX_CONCURRENT_SEARCHES, Job.DEFAULT_SEARCH_MAX_CONCURRENT_SEARCHES, params, reqParams);
         final Integer searchMaxConcurrentShardRequests = ParamsUtil.optInteger(PARAM_SEARCH_MAX_CONCURRENT_SHARD_REQUESTS, null, params, reqParams);
+        final Boolean searchMsearch = ParamsUtil.optBoolean(PARAM_SEARCH_MSEARCH, Job.DEFAULT_SEARCH_MSEARCH, params, reqParams);
+        final Boolean searchPaginate = ParamsUtil.optBoolean(PARAM_SEARCH_PAGINATE, Job.DEFAULT_SEARCH_PAGINATE, params, reqParams);
+        final Boolean searchParallel = ParamsUtil.optBoolean(PARAM_SEARCH_PARALLEL, Job.DEFAULT_SEARCH_PARALLEL, params, reqParams);
         final Integer searchPreFilterShardSize = ParamsUtil.optInteger(PARAM_SEARCH_PRE_FILTER_SHARD_SIZE, null, params, reqParams);
         final Boolean searchRequestCache = ParamsUtil.optBoolean(PARAM_SEARCH_REQUEST_CACHE, null, params, reqParams);
         final String searchPreference = ParamsUtil.optString(PARAM_SEARCH_PREFERENCE, null, params, reqParams);
+        if (searchMaxConcurrentSearches != null && searchMaxConcurrentSearches < 1)
+            throw new BadRequestException("'" + PARAM_SEARCH_MAX_CONCURRENT_SEARCHES + "' must be greater than 0.");
+        if (maxDocs < -1 || maxDocs == 0)
+            throw new BadRequestException("'" + PARAM_MAX_DOCS + "' must be greater than 0, or -1 for no limit.");
+        final TimeValue maxTimeValue = maxTime != null ? TimeValue.parseTimeValue(maxTime, PARAM_MAX_TIME) : null;
+        if (maxTimeValue != null && maxTimeValue.nanos() <= 0)
+            throw new BadRequestException("'" + PARAM_MAX_TIME + "' must be greater than 0.");
 
         // Prepare the entity resolution job.
         Job job = new Job(client);
+        job.cancelled(client::isCancelled);
         job.input(input);
+        job.deltaQueries(deltaQueries);
+        job.excludeDocs(excludeDocs);
         job.includeAttributes(includeAttributes);
         job.includeErrorTrace(includeErrorTrace);
         job.includeExplanation(includeExplanation);
@@ -154,23 +237,33 @@ public class ResolutionAction extends BaseRestHandler {
         job.includeSeqNoPrimaryTerm(includeSeqNoPrimaryTerm);
         job.includeSource(includeSource);
         job.includeVersion(includeVersion);
+        if (maxBytes != null)
+            job.maxBytes(ByteSizeValue.parseBytesSizeValue(maxBytes, PARAM_MAX_BYTES).getBytes());
+        job.maxDocs(maxDocs);
         job.maxDocsPerQuery(maxDocsPerQuery);
         job.maxHops(maxHops);
+        if (maxTimeValue != null)
+            job.maxTime(maxTimeValue);
         job.maxTimePerQuery(maxTimePerQuery);
         job.pretty(pretty);
         job.profile(profile);
+        job.breaker(this.requestBreaker);
 
         // Optional search parameters
         job.searchAllowPartialSearchResults(searchAllowPartialSearchResults);
         job.searchBatchedReduceSize(searchBatchedReduceSize);
+        job.searchMaxConcurrentSearches(searchMaxConcurrentSearches);
         job.searchMaxConcurrentShardRequests(searchMaxConcurrentShardRequests);
+        job.searchMsearch(searchMsearch);
+        job.searchPaginate(searchPaginate);
+        job.searchParallel(searchParallel);
         job.searchPreFilterShardSize(searchPreFilterShardSize);
         job.searchPreference(searchPreference);
         job.searchRequestCache(searchRequestCache);
         return job;
     }
 
-    static void buildJob(NodeClient client, String body, Map<String, String> params, Map<String, String> reqParams, ActionListener<Job> onComplete) {
+    void buildJob(JobClient client, String body, Map<String, String> params, Map<String, String> reqParams, ActionListener<Job> onComplete) {
         if (body == null || body.equals(""))
             throw new BadRequestException("Request body is missing.");
 
@@ -186,21 +279,21 @@ public class ResolutionAction extends BaseRestHandler {
         } else {
 
             // If an entity type is given, retrieve the entity model.
-            getModelString(client, entityType, ActionListener.wrap(
-                    (modelString) -> buildJob(client, new Model(modelString, true), body, params, reqParams, onComplete),
+            getModel(client, entityType, ActionListener.wrap(
+                    (model) -> buildJob(client, model, body, params, reqParams, onComplete),
                     onComplete::onFailure
             ));
         }
     }
 
-    static void buildJob(NodeClient client, Model model, String body, Map<String, String> params, Map<String, String> reqParams, ActionListener<Job> onComplete) throws IOException, ValidationException {
+    void buildJob(JobClient client, Model model, String body, Map<String, String> params, Map<String, String> reqParams, ActionListener<Job> onComplete) throws IOException, ValidationException {
         if (body == null || body.equals(""))
             throw new BadRequestException("Request body is missing.");
         Input input = new Input(body, model);
         buildJob(client, input, body, params, reqParams, onComplete);
     }
 
-    static void buildJob(NodeClient client, Input input, String body, Map<String, String> params, Map<String, String> reqParams, ActionListener<Job> onComplete) {
+    void buildJob(JobClient client, Input input, String body, Map<String, String> params, Map<String, String> reqParams, ActionListener<Job> onComplete) {
         if (body == null || body.equals(""))
             throw new BadRequestException("Request body is missing.");
         Job job = buildJob(client, input, params, reqParams);
@@ -231,13 +324,13 @@ public class ResolutionAction extends BaseRestHandler {
      * @param reqParams  The request params.
      * @param onComplete The action to perform after the job completes.
      */
-    static void buildAndRunJob(NodeClient client, String body, Map<String, String> params, Map<String, String> reqParams, ActionListener<BulkAction.SingleResult> onComplete) {
+    void buildAndRunJob(JobClient client, String body, Map<String, String> params, Map<String, String> reqParams, ActionListener<BulkAction.SingleResult> onComplete) {
         buildJob(client, body, params, reqParams, onComplete.delegateFailure(
             (ignored, job) -> runJob(job, onComplete)
         ));
     }
 
-    static void delegateJobFailure(ActionListener<BulkAction.SingleResult> delegate, NodeClient client, Exception failure) {
+    static void delegateJobFailure(ActionListener<BulkAction.SingleResult> delegate, JobClient client, Exception failure) {
         Job failedJob = new Job(client);
         failedJob.took(0);
         failedJob.failed(true);
@@ -254,14 +347,31 @@ public class ResolutionAction extends BaseRestHandler {
     /**
      * Run a collection of resolution jobs concurrently.
      *
-     * @param client      The node client.
-     * @param modelString The serialized entity model (null is acceptable).
-     *                    Deserialized by each job to avoid mutating the model shared between jobs.
-     * @param entries     The bulk tuple entries.
-     * @param reqParams   The parameters map for the entire request.
-     * @param listener    The listener for completion results.
+     * @param client        The node client.
+     * @param entityType    The entity type given in the URL (null is acceptable).
+     * @param modelResponse The retrieved entity model of the entity type given in the URL (null is acceptable).
+     *                      The entity model is parsed once and shared by the jobs that use it.
+     * @param entries       The bulk tuple entries, which are read as the jobs are run.
+     * @param reqParams     The parameters map for the entire request.
+     * @param onItem        Consumes the result of each job as soon as it completes, instead of collecting the results (null is acceptable).
+     * @param whenReady     Runs the next job once onItem is ready for another result (null is acceptable).
+     * @param listener      The listener for completion results, which are empty if the results are consumed by onItem.
      */
-    static void executeBulk(NodeClient client, String modelString, List<Tuple<String, String>> entries, Map<String, String> reqParams, ActionListener<Collection<BulkAction.SingleResult>> listener) {
+    void executeBulk(JobClient client, String entityType, GetResponse modelResponse, BulkAction.BulkEntries entries, Map<String, String> reqParams, BiConsumer<Integer, BulkAction.SingleResult> onItem, Consumer<Runnable> whenReady, ActionListener<Collection<BulkAction.SingleResult>> listener) {
+
+        // Parse the entity model of the entity type given in the URL. An invalid entity model fails each job that uses it.
+        Model model = null;
+        Exception modelError = null;
+        if (modelResponse != null) {
+            try {
+                model = this.modelCache.get(entityType, modelResponse);
+            } catch (Exception e) {
+                modelError = e;
+            }
+        }
+        final Model urlModel = model;
+        final Exception urlModelError = modelError;
+
         BiConsumer<Tuple<String, String>, ActionListener<BulkAction.SingleResult>> jobRunner = (tuple, delegate) -> {
             ActionListener<Job> onJobBuilt = ActionListener.wrap(
                     (job) -> runJob(job, delegate),
@@ -280,7 +390,7 @@ public class ResolutionAction extends BaseRestHandler {
 
             // Handle job building errors, but not job running as those should be considered fatal
             try {
-                if (modelString == null) {
+                if (modelResponse == null) {
                     // This request did not have an entity model in the URL. Retrieve the entity model for this job.
                     buildJob(client, body, params, reqParams, onJobBuilt);
                 } else if (params.get(PARAM_ENTITY_TYPE) != null && !java.util.Objects.equals(params.get(PARAM_ENTITY_TYPE), reqParams.get(PARAM_ENTITY_TYPE))) {
@@ -288,7 +398,9 @@ public class ResolutionAction extends BaseRestHandler {
                     buildJob(client, body, params, reqParams, onJobBuilt);
                 } else {
                     // This job uses the entity model from the URL.
-                    buildJob(client, new Model(modelString, false), body, params, reqParams, onJobBuilt);
+                    if (urlModelError != null)
+                        throw urlModelError;
+                    buildJob(client, urlModel, body, params, reqParams, onJobBuilt);
                 }
             } catch (Exception e) {
                 delegateJobFailure(delegate, client, e);
@@ -298,9 +410,14 @@ public class ResolutionAction extends BaseRestHandler {
         // Treat all failures as fatal and fail the request as quickly as possible.
         // Jobs that have handleable errors should attempt to complete normally with a structured response.
         AsyncCollectionRunner<Tuple<String, String>, BulkAction.SingleResult> collectionRunner
-            = new AsyncCollectionRunner<>(entries, jobRunner, MAX_CONCURRENT_JOBS_PER_REQUEST, true);
-
-        collectionRunner.run(listener);
+            = new AsyncCollectionRunner<>(entries, entries.size(), jobRunner, MAX_CONCURRENT_JOBS_PER_REQUEST, true);
+
+        if (onItem == null)
+            collectionRunner.run(listener);
+        else if (whenReady == null)
+            collectionRunner.run(onItem, listener.map((ignored) -> emptyList()));
+        else
+            collectionRunner.run(onItem, whenReady, listener.map((ignored) -> emptyList()));
     }
 
     /**
@@ -312,9 +429,11 @@ public class ResolutionAction extends BaseRestHandler {
      * @param client The node client.
      * @param entries The bulk tuple entries.
      * @param reqParams The parameters map for the entire request.
+     * @param onItem Consumes the result of each job as soon as it completes, instead of collecting the results (null is acceptable).
+     * @param whenReady Runs the next job once onItem is ready for another result (null is acceptable).
      * @param onComplete The listener for completion results.
      */
-    static void runBulk(NodeClient client, List<Tuple<String, String>> entries, Map<String, String> reqParams, ActionListener<BulkAction.BulkResult> onComplete) {
+    void runBulk(JobClient client, BulkAction.BulkEntries entries, Map<String, String> reqParams, BiConsumer<Integer, BulkAction.SingleResult> onItem, Consumer<Runnable> whenReady, ActionListener<BulkAction.BulkResult> onComplete) {
         final long startTime = System.nanoTime();
 
         ActionListener<Collection<BulkAction.SingleResult>> delegate = onComplete.delegateFailure(
@@ -331,35 +450,37 @@ public class ResolutionAction extends BaseRestHandler {
 
             // An entity type was not given in the URL.
             // Each job may have its own entity model.
-            executeBulk(client, null, entries, reqParams, delegate);
+            executeBulk(client, null, null, entries, reqParams, onItem, whenReady, delegate);
         } else {
 
             // An entity type was given in the URL.
             // One entity model will be used for all jobs (unless overridden by any jobs).
             // Retrieve the entity model once before running any jobs.
-            getModelString(client, entityType, ActionListener.wrap(
-                    (modelString) -> executeBulk(client, modelString, entries, reqParams, delegate),
+            getModelResponse(client, entityType, ActionListener.wrap(
+                    (modelResponse) -> executeBulk(client, entityType, modelResponse, entries, reqParams, onItem, whenReady, delegate),
                     onComplete::onFailure
             ));
         }
     }
 
     @Override
-    protected RestChannelConsumer prepareRequest(RestRequest restRequest, NodeClient client) {
+    protected RestChannelConsumer prepareRequest(RestRequest restRequest, NodeClient nodeClient) {
 
         // Validate the request body.
         if (!restRequest.hasContent())
             throw new BadRequestException("Request body is missing.");
 
-        // would be better to handle incoming content as a stream for bulk,
-        // but alas, unsure how to use the StreamInput format
-        final String body = restRequest.content().utf8ToString();
+        // Bulk requests read their entries from the content as the jobs are run,
+        // instead of holding a decoded copy of the whole content.
+        final BytesReference content = restRequest.content();
 
         // Read all possible parameters into a map so that the handler knows we've consumed them
         // and all other unknowns will be thrown as unrecognized
         Map<String, String> reqParams = ParamsUtil.readAll(
             restRequest,
+            PARAM_DELTA_QUERIES,
             PARAM_ENTITY_TYPE,
+            PARAM_EXCLUDE_DOCS,
             PARAM_PRETTY,
             PARAM_INCLUDE_ATTRIBUTES,
             PARAM_INCLUDE_ERROR_TRACE,
@@ -370,42 +491,79 @@ public class ResolutionAction extends BaseRestHandler {
             PARAM_INCLUDE_SEQ_NO_PRIMARY_TERM,
             PARAM_INCLUDE_SOURCE,
             PARAM_INCLUDE_VERSION,
+            PARAM_MAX_BYTES,
+            PARAM_MAX_DOCS,
             PARAM_MAX_DOCS_PER_QUERY,
             PARAM_MAX_HOPS,
+            PARAM_MAX_TIME,
             PARAM_MAX_TIME_PER_QUERY,
             PARAM_PROFILE,
             PARAM_SEARCH_ALLOW_PARTIAL_SEARCH_RESULTS,
             PARAM_SEARCH_BATCHED_REDUCE_SIZE,
+            PARAM_SEARCH_MAX_CONCURRENT_SEARCHES,
             PARAM_SEARCH_MAX_CONCURRENT_SHARD_REQUESTS,
+            PARAM_SEARCH_MSEARCH,
+            PARAM_SEARCH_PAGINATE,
+            PARAM_SEARCH_PARALLEL,
             PARAM_SEARCH_PRE_FILTER_SHARD_SIZE,
             PARAM_SEARCH_REQUEST_CACHE,
-            PARAM_SEARCH_PREFERENCE
+            PARAM_SEARCH_PREFERENCE,
+            PARAM_STREAM
         );
 
         final boolean pretty = ParamsUtil.optBoolean(PARAM_PRETTY, Job.DEFAULT_PRETTY, reqParams, emptyMap());
+        final boolean stream = ParamsUtil.optBoolean(PARAM_STREAM, false, reqParams, emptyMap());
 
         return channel -> {
+            JobClient client = new JobClient(nodeClient, restRequest.getHttpChannel());
             Consumer<Exception> errorHandler = (e) -> ZentityPlugin.sendResponseError(channel, logger, e);
             try {
                 boolean isBulkRequest = restRequest.path().endsWith("/_bulk");
                 if (isBulkRequest) {
 
                     // Run bulk jobs
-                    List<Tuple<String, String>> entries = BulkAction.splitBulkEntries(body);
-                    runBulk(client, entries, reqParams, ActionListener.wrap(
-                        (bulkResult) -> {
-                            String json = BulkAction.bulkResultToJson(bulkResult);
-                            if (pretty)
-                                json = Json.pretty(json);
-                            channel.sendResponse(new RestResponse(RestStatus.OK, "application/json", json));
-                        },
-                        errorHandler
-                    ));
+                    // The entries hold the content until every job has run, because a streaming response is sent
+                    // when the first job completes, which releases the content of the request.
+                    BulkAction.BulkEntries entries = BulkAction.readBulkEntries(content);
+                    try {
+                        if (stream) {
+
+                            // Stream the result of each job as soon as it completes.
+                            // Jobs are paused while the client falls behind in reading the results.
+                            BulkAction.BulkResponseStream responseStream = new BulkAction.BulkResponseStream(channel);
+                            runBulk(client, entries, reqParams, (ordinal, jobResult) -> {
+                                try {
+                                    responseStream.onItem(ordinal, jobResult);
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            }, responseStream::whenReady, ActionListener.runBefore(ActionListener.wrap(
+                                (bulkResult) -> responseStream.onComplete(bulkResult.took),
+                                (e) -> {
+                                    if (!responseStream.onFailure(e))
+                                        errorHandler.accept(e);
+                                }
+                            ), entries::close));
+                        } else {
+                            runBulk(client, entries, reqParams, null, null, ActionListener.runBefore(ActionListener.wrap(
+                                (bulkResult) -> {
+                                    String json = BulkAction.bulkResultToJson(bulkResult);
+                                    if (pretty)
+                                        json = Json.pretty(json);
+                                    channel.sendResponse(new RestResponse(RestStatus.OK, "application/json", json));
+                                },
+                                errorHandler
+                            ), entries::close));
+                        }
+                    } catch (Exception e) {
+                        entries.close();
+                        throw e;
+                    }
                 } else {
 
                     // Run single job
                     // Prepare the entity resolution job
-                    buildAndRunJob(client, body, reqParams, emptyMap(), ActionListener.wrap(
+                    buildAndRunJob(client, content.utf8ToString(), reqParams, emptyMap(), ActionListener.wrap(
                         (jobResult) -> {
                             if (jobResult.failed)
                                 channel.sendResponse(new RestResponse(RestStatus.INTERNAL_SERVER_ERROR, "application/json", jobResult.response));
@@ -22,6 +22,7 @@ import org.apache.logging.log4j.Logger;
 import org.elasticsearch.ElasticsearchSecurityException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
+import org.elasticsearch.client.internal.Client;
 import org.elasticsearch.client.internal.node.NodeClient;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.xcontent.XContentBuilder;
@@ -79,7 +80,7 @@ public class SetupAction extends BaseRestHandler {
      * @param numberOfReplicas The value of index.number_of_replicas.
      * @param onComplete       Action to perform after index creation request completes.
      */
-    public static void createIndex(NodeClient client, int numberOfShards, int numberOfReplicas, ActionListener<CreateIndexResponse> onComplete) {
+    public static void createIndex(Client client, int numberOfShards, int numberOfReplicas, ActionListener<CreateIndexResponse> onComplete) {
         client.admin().indices().prepareCreate(ModelsAction.INDEX_NAME)
             .setSettings(Settings.builder()
                     .put("index.hidden", true)
@@ -96,7 +97,7 @@ public class SetupAction extends BaseRestHandler {
      * @param client     The client that will communicate with Elasticsearch.
      * @param onComplete The action to perform after the index creation request completes.
      */
-    public static void createIndex(NodeClient client, ActionListener<CreateIndexResponse> onComplete) {
+    public static void createIndex(Client client, ActionListener<CreateIndexResponse> onComplete) {
         createIndex(client, DEFAULT_NUMBER_OF_SHARDS, DEFAULT_NUMBER_OF_REPLICAS, onComplete);
     }
 
@@ -0,0 +1,72 @@
+/*
+ * zentity
+ * Copyright © 2018-2025 Dave Moore
+ * https://zentity.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.plugin.zentity;
+
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+
+import java.util.List;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * Report the statistics of the node that receives the request.
+ */
+public class StatsAction extends BaseRestHandler {
+
+    private final ModelCache modelCache;
+
+    /**
+     * @param modelCache The cache of parsed entity models, whose statistics are reported.
+     */
+    public StatsAction(ModelCache modelCache) {
+        this.modelCache = modelCache;
+    }
+
+    @Override
+    public List<Route> routes() {
+        return List.of(
+                new Route(GET, "_zentity/_stats")
+        );
+    }
+
+    @Override
+    public String getName() {
+        return "zentity_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest restRequest, NodeClient client) {
+        Boolean pretty = restRequest.paramAsBoolean("pretty", false);
+        return channel -> {
+            XContentBuilder content = XContentFactory.jsonBuilder();
+            if (pretty)
+                content.prettyPrint();
+            content.startObject();
+            content.field("node", client.getLocalNodeId());
+            this.modelCache.stats(content);
+            content.endObject();
+            channel.sendResponse(new RestResponse(RestStatus.OK, content));
+        };
+    }
+}
@@ -26,9 +26,12 @@ import org.elasticsearch.ElasticsearchStatusException;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.node.DiscoveryNodes;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
 import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
 import org.elasticsearch.common.settings.ClusterSettings;
 import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
 import org.elasticsearch.features.NodeFeature;
@@ -44,6 +47,8 @@ import org.elasticsearch.plugins.Plugin;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.function.Predicate;
@@ -80,6 +85,7 @@ class BadRequestException extends ElasticsearchStatusException {
 public class ZentityPlugin extends Plugin implements ActionPlugin {
 
     private static final Properties properties = new Properties();
+    private CircuitBreaker requestBreaker = new NoopCircuitBreaker(CircuitBreaker.REQUEST);
 
     public ZentityPlugin() throws IOException {
         Properties zentityProperties = new Properties();
@@ -100,6 +106,20 @@ public class ZentityPlugin extends Plugin implements ActionPlugin {
         return properties.getProperty("version");
     }
 
+    @Override
+    public Collection<?> createComponents(PluginServices services) {
+
+        // The request circuit breaker of the node accounts the memory held by resolution jobs.
+        // Components are created before the REST handlers, which receive the breaker.
+        this.requestBreaker = services.indicesService().getCircuitBreakerService().getBreaker(CircuitBreaker.REQUEST);
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return ModelCache.settings();
+    }
+
     @Override
     public List<RestHandler> getRestHandlers(
             Settings settings,
@@ -111,11 +131,13 @@ public class ZentityPlugin extends Plugin implements ActionPlugin {
             IndexNameExpressionResolver indexNameExpressionResolver,
             Supplier<DiscoveryNodes> nodesInCluster,
             Predicate<NodeFeature> clusterSupportsFeature) {
+        ModelCache modelCache = new ModelCache(settings);
         return Arrays.asList(
                 new HomeAction(),
-                new ModelsAction(),
-                new ResolutionAction(),
-                new SetupAction()
+                new ModelsAction(modelCache),
+                new ResolutionAction(modelCache, this.requestBreaker),
+                new SetupAction(),
+                new StatsAction(modelCache)
         );
     }
 
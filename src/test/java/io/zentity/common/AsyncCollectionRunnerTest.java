@@ -20,16 +20,23 @@ package io.zentity.common;
 import org.elasticsearch.action.ActionListener;
 import org.junit.Test;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class AsyncCollectionRunnerTest {
   static final Executor THREAD_PER_TASK_EXECUTOR = (command) -> new Thread(command).start();
@@ -113,4 +120,91 @@ public class AsyncCollectionRunnerTest {
     Collection<Integer> results = doneFut.get();
     assertEquals(items, results);
   }
+
+  @Test
+  public void testRunWhenReady() throws InterruptedException, ExecutionException {
+    int size = 10;
+    List<Integer> items = IntStream.range(0, size)
+        .boxed()
+        .collect(Collectors.toList());
+    List<Integer> results = new ArrayList<>();
+    Deque<Runnable> waiting = new ArrayDeque<>();
+
+    BiConsumer<Integer, ActionListener<Integer>> itemRunner = (num, listener) -> listener.onResponse(num);
+
+    CompletableFuture<Void> doneFut = new CompletableFuture<>();
+
+    AsyncCollectionRunner<Integer, Integer> runner = new AsyncCollectionRunner<>(
+        items,
+        itemRunner,
+        2);
+
+    runner.run(
+        (index, result) -> results.add(result),
+        waiting::add,
+        ActionListener.wrap(doneFut::complete, doneFut::completeExceptionally));
+
+    // Each item waits for the consumer to be ready before running the next one.
+    assertEquals(List.of(0, 1), results);
+    assertEquals(2, waiting.size());
+    waiting.poll().run();
+    assertEquals(List.of(0, 1, 2), results);
+    while (!waiting.isEmpty())
+      waiting.poll().run();
+    doneFut.get();
+    assertEquals(items, results);
+  }
+
+  @Test
+  public void testRunIteratorLazily() throws InterruptedException, ExecutionException {
+    int size = 100;
+    int concurrency = 5;
+    List<Integer> items = IntStream.range(0, size)
+        .boxed()
+        .collect(Collectors.toList());
+    AtomicInteger consumed = new AtomicInteger();
+    AtomicInteger completed = new AtomicInteger();
+    AtomicBoolean consumedEagerly = new AtomicBoolean(false);
+    Iterator<Integer> iterator = items.iterator();
+    Iterator<Integer> countingIterator = new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public Integer next() {
+
+        // No more items are consumed than can run at once.
+        if (consumed.incrementAndGet() - completed.get() > concurrency)
+          consumedEagerly.set(true);
+        return iterator.next();
+      }
+    };
+
+    BiConsumer<Integer, ActionListener<Integer>> itemRunner = (num, listener) -> {
+      THREAD_PER_TASK_EXECUTOR.execute(() -> {
+        quietSleep(1);
+        completed.incrementAndGet();
+        listener.onResponse(num);
+      });
+    };
+
+    CompletableFuture<Collection<Integer>> doneFut = new CompletableFuture<>();
+
+    AsyncCollectionRunner<Integer, Integer> runner = new AsyncCollectionRunner<>(
+        countingIterator,
+        size,
+        itemRunner,
+        concurrency,
+        false);
+
+    runner.run(
+        ActionListener.wrap(doneFut::complete, doneFut::completeExceptionally));
+
+    Collection<Integer> results = doneFut.get();
+    assertEquals(items, results);
+    assertEquals(size, consumed.get());
+    assertFalse(consumedEagerly.get());
+  }
 }
@@ -17,6 +17,7 @@
  */
 package io.zentity.model;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 public class IndexFieldTest {
@@ -201,4 +202,17 @@ public class IndexFieldTest {
     public void testInvalidQualityValueTooHigh() throws Exception {
         new IndexField("index_name", "index_field_name", "{\"attribute\":\"foo\",\"quality\":100.0}");
     }
+
+    ////  Path  ////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testPathKeys() throws Exception {
+        IndexField indexField = new IndexField("index_name", "a.b.c", VALID_OBJECT);
+        Assert.assertArrayEquals(new String[]{ "a", "b", "c" }, indexField.path());
+        Assert.assertArrayEquals(new String[][]{
+            { "a", "a.b", "a.b.c" },
+            { "b", "b.c" },
+            { "c" }
+        }, indexField.pathKeys());
+    }
 }
@@ -21,6 +21,9 @@ import org.junit.Test;
 
 import java.util.Collections;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class ModelTest {
@@ -798,4 +801,48 @@ public class ModelTest {
                 "  \"indices\":{\"index_name_a\":\"foobar\"}\n" +
                 "}");
     }
+
+    ////  Ordinals  ////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testAttributeOrdinals() throws Exception {
+        Model model = new Model(VALID_OBJECT);
+        assertEquals(0, model.attributes().get("attribute_array").ordinal());
+        assertEquals(1, model.attributes().get("attribute_name").ordinal());
+        assertEquals(2, model.attributes().get("attribute_object").ordinal());
+        assertEquals(3, model.indexFieldCount());
+        assertEquals(2, model.indices().get("index_name_c").fields().get("index_field_name").ordinal());
+    }
+
+    ////  Scores  //////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testAttributeIdentityConfidenceScores() throws Exception {
+        Model model = new Model("{\n" +
+                "  \"attributes\":{\"name\":{\"score\":0.75},\"phone\":{}},\n" +
+                "  \"resolvers\":{\"a\":{\"attributes\":[\"name\"]}},\n" +
+                "  \"matchers\":{\"exact\":{\"clause\":{\"term\":{\"{{ field }}\":\"{{ value }}\"}},\"quality\":0.9}},\n" +
+                "  \"indices\":{\n" +
+                "    \"index_a\":{\"fields\":{\"name\":{\"attribute\":\"name\",\"matcher\":\"exact\",\"quality\":0.8},\"phone\":{\"attribute\":\"phone\",\"matcher\":\"exact\"}}},\n" +
+                "    \"index_b\":{\"fields\":{\"name\":{\"attribute\":\"name\"},\"other\":{\"attribute\":\"missing\"}}}\n" +
+                "  }\n" +
+                "}");
+        IndexField nameA = model.indices().get("index_a").fields().get("name");
+        IndexField phoneA = model.indices().get("index_a").fields().get("phone");
+        IndexField nameB = model.indices().get("index_b").fields().get("name");
+        IndexField otherB = model.indices().get("index_b").fields().get("other");
+        assertEquals(0, nameA.ordinal());
+        assertEquals(1, phoneA.ordinal());
+        assertEquals(2, nameB.ordinal());
+        assertEquals(3, otherB.ordinal());
+        assertEquals(0.68, model.attributeIdentityConfidenceScore(nameA), 0.0000000001);
+        assertNull(model.attributeIdentityConfidenceScore(phoneA));
+        assertEquals(0.75, model.attributeIdentityConfidenceScore(nameB), 0.0000000001);
+        assertNull(model.attributeIdentityConfidenceScore(otherB));
+
+        // A scoped view of the entity model shares the scores.
+        Model scoped = model.scope(index -> index.equals("index_b"), resolver -> true);
+        assertSame(nameB, scoped.indices().get("index_b").fields().get("name"));
+        assertEquals(0.75, scoped.attributeIdentityConfidenceScore(nameB), 0.0000000001);
+    }
 }
@@ -25,11 +25,41 @@ import io.zentity.model.Matcher;
 import io.zentity.model.Model;
 import io.zentity.model.ValidationException;
 import io.zentity.resolution.input.Input;
+import io.zentity.resolution.input.value.Value;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.internal.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.ExistsQueryBuilder;
+import org.elasticsearch.index.query.IdsQueryBuilder;
+import org.elasticsearch.index.query.MatchAllQueryBuilder;
+import org.elasticsearch.index.query.MatchNoneQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.TermQueryBuilder;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.SearchShardTarget;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class JobTest {
 
@@ -60,11 +90,679 @@ public class JobTest {
         Map<String, Integer> counts = Query.countAttributesAcrossResolvers(model, resolversList);
         List<List<String>> resolversSorted = Query.sortResolverAttributes(model, resolversList, counts);
         TreeMap<String, TreeMap> resolversFilterTree = Query.makeResolversFilterTree(resolversSorted);
-        String resolversClause = Query.populateResolversFilterTree(model, "index", resolversFilterTree, input.attributes(), false, new AtomicInteger());
+        String resolversClause = Query.populateResolversFilterTree(model, "index", resolversFilterTree, input.attributes(), null);
         String expected = "{\"bool\":{\"should\":[{\"match\":{\"id\":\"1234567890\",\"fuzziness\":\"auto\"}},{\"bool\":{\"filter\":[{\"bool\":{\"should\":[{\"term\":{\"name\":\"Alice Jones\"}},{\"term\":{\"name\":\"Alice Jones-Smith\"}}]}},{\"bool\":{\"should\":[{\"match\":{\"phone\":\"555-123-4567\",\"fuzziness\":\"2\"}},{\"bool\":{\"filter\":[{\"term\":{\"street\":\"123 Main St\"}},{\"bool\":{\"should\":[{\"bool\":{\"filter\":[{\"term\":{\"city\":\"Beverly Hills\"}},{\"term\":{\"state\":\"CA\"}}]}},{\"term\":{\"zip\":\"90210\"}}]}}]}}]}}]}}]}}";
         Assert.assertEquals(resolversClause, expected);
     }
 
+    /**
+     * Name each distinct match of an attribute value to an index field by its position in the table of named queries,
+     * and look up the matches of a document by the names of its matched queries.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNamedQueries() throws Exception {
+        String attributes = "\"attributes\":{\"name\":{},\"age\":{\"type\":\"number\"}}";
+        String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"name\",\"age\"]},\"b\":{\"attributes\":[\"name\"]}}";
+        String matchers = "\"matchers\":{\"x\":{\"clause\":{\"term\":{\"{{field}}\":\"{{value}}\"}},\"params\":{\"p\":\"1\"}}}";
+        String indices = "\"indices\":{\"index\":{\"fields\":{\"name\":{\"attribute\":\"name\",\"matcher\":\"x\"},\"age\":{\"attribute\":\"age\",\"matcher\":\"x\"}}}}";
+        Model model = new Model("{" + attributes + "," + resolvers + "," + matchers + "," + indices + "}");
+        Input input = new Input("{\"attributes\":{\"name\":[\"Bob\",\"Al \\\"Ice\\\"\"],\"age\":[42]}}", model);
+        List<String> resolversList = Arrays.asList("a", "b");
+        Map<String, Integer> counts = Query.countAttributesAcrossResolvers(model, resolversList);
+        TreeMap<String, TreeMap> resolversFilterTree = Query.makeResolversFilterTree(Query.sortResolverAttributes(model, resolversList, counts));
+        NamedQueries namedQueries = new NamedQueries();
+        String resolversClause = Query.populateResolversFilterTree(model, "index", resolversFilterTree, input.attributes(), namedQueries);
+
+        // The names are short, and a value that appears in more than one clause keeps its name.
+        Assert.assertEquals(3, namedQueries.size());
+        Assert.assertTrue(resolversClause.contains("{\"bool\":{\"_name\":\"_zentity_0\",\"filter\":{\"term\":{\"name\":\"Al \\\"Ice\\\"\"}}}}"));
+
+        // The matches are sorted by attribute, index field, matcher, and value. Unknown names are ignored, including
+        // the names that a matcher clause could give its own queries.
+        List<NamedQueries.Match> matches = namedQueries.matches(new String[]{ "_zentity_2", "_zentity_1", "_zentity_0", "other", "1", "_zentity_", "_zentity_9", "_zentity_1x" });
+        Assert.assertEquals(3, matches.size());
+        Assert.assertEquals("age", matches.get(0).attributeName());
+        Assert.assertEquals("42", matches.get(0).inputValue().toString());
+        Assert.assertEquals("name", matches.get(1).attributeName());
+        Assert.assertEquals("name", matches.get(1).indexFieldName());
+        Assert.assertEquals("x", matches.get(1).matcherName());
+        Assert.assertEquals("\"Al \\\"Ice\\\"\"", matches.get(1).inputValue().toString());
+        Assert.assertEquals("\"Bob\"", matches.get(2).inputValue().toString());
+    }
+
+    @Test
+    public void testPopulateDeltaResolversClause() throws Exception {
+        String attributes = "\"attributes\":{\"name\":{},\"street\":{},\"phone\":{},\"id\":{}}";
+        String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"name\",\"street\"]},\"b\":{\"attributes\":[\"name\",\"phone\"]},\"c\":{\"attributes\":[\"id\"]}}";
+        String matchers = "\"matchers\":{\"x\":{\"clause\":{\"term\":{\"{{field}}\":\"{{value}}\"}}}}";
+        String indices = "\"indices\":{\"index\":{\"fields\":{\"name\":{\"attribute\":\"name\",\"matcher\":\"x\"},\"street\":{\"attribute\":\"street\",\"matcher\":\"x\"},\"phone\":{\"attribute\":\"phone\",\"matcher\":\"x\"},\"id\":{\"attribute\":\"id\",\"matcher\":\"x\"}}}}";
+        Model model = new Model("{" + attributes + "," + resolvers + "," + matchers + "," + indices + "}");
+        String json = "{\n" +
+                "  \"attributes\": {" +
+                "    \"name\": { \"values\": [ \"Alice Jones\", \"Alice Jones-Smith\" ]}," +
+                "    \"street\": { \"values\": [ \"123 Main St\" ]}," +
+                "    \"phone\": { \"values\": [ \"555-123-4567\", \"555-987-6543\" ]}," +
+                "    \"id\": { \"values\": [ \"1234567890\" ]}" +
+                "  }\n" +
+                "}";
+        Input input = new Input(json, model);
+        List<String> resolversList = Arrays.asList("a", "b", "c");
+
+        // Only the resolvers that use the new values of "name" are queried, and only with the new values of "name".
+        Map<String, io.zentity.resolution.input.Attribute> deltaAttributes = new TreeMap<>();
+        deltaAttributes.put("name", new io.zentity.resolution.input.Attribute("name", "string", "{\"values\":[\"Alice Jones-Smith\"]}"));
+        String resolversClause = Query.populateDeltaResolversClause(model, "index", resolversList, input.attributes(), deltaAttributes, null);
+        String expected = "{\"bool\":{\"filter\":[{\"term\":{\"name\":\"Alice Jones-Smith\"}},{\"bool\":{\"should\":[{\"bool\":{\"should\":[{\"term\":{\"phone\":\"555-123-4567\"}},{\"term\":{\"phone\":\"555-987-6543\"}}]}},{\"term\":{\"street\":\"123 Main St\"}}]}}]}}";
+        Assert.assertEquals(resolversClause, expected);
+
+        // Each attribute with new values is combined in a "should" clause.
+        deltaAttributes.put("phone", new io.zentity.resolution.input.Attribute("phone", "string", "{\"values\":[\"555-987-6543\"]}"));
+        resolversClause = Query.populateDeltaResolversClause(model, "index", resolversList, input.attributes(), deltaAttributes, null);
+        expected = "{\"bool\":{\"should\":[" +
+                "{\"bool\":{\"filter\":[{\"term\":{\"name\":\"Alice Jones-Smith\"}},{\"bool\":{\"should\":[{\"bool\":{\"should\":[{\"term\":{\"phone\":\"555-123-4567\"}},{\"term\":{\"phone\":\"555-987-6543\"}}]}},{\"term\":{\"street\":\"123 Main St\"}}]}}]}}," +
+                "{\"bool\":{\"filter\":[{\"bool\":{\"should\":[{\"term\":{\"name\":\"Alice Jones\"}},{\"term\":{\"name\":\"Alice Jones-Smith\"}}]}},{\"term\":{\"phone\":\"555-987-6543\"}}]}}" +
+                "]}}";
+        Assert.assertEquals(resolversClause, expected);
+
+        // Nothing is queried if no resolver uses a new value.
+        deltaAttributes.clear();
+        resolversClause = Query.populateDeltaResolversClause(model, "index", Arrays.asList("c"), input.attributes(), deltaAttributes, null);
+        Assert.assertEquals(resolversClause, "");
+    }
+
+    /**
+     * Compare the size of the query of an entity that has 10,000 docs in a prior hop for each "exclude_docs" strategy.
+     * The "all" strategy writes every _id into the query, while the other strategies keep the query small.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExcludeDocsQuerySize() throws Exception {
+        String attributes = "\"attributes\":{\"name\":{}}";
+        String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"name\"]}}";
+        String matchers = "\"matchers\":{\"x\":{\"clause\":{\"term\":{\"{{field}}\":\"{{value}}\"}}}}";
+        String indices = "\"indices\":{\"index\":{\"fields\":{\"name\":{\"attribute\":\"name\",\"matcher\":\"x\"}}}}";
+        Model model = new Model("{" + attributes + "," + resolvers + "," + matchers + "," + indices + "}");
+        Input input = new Input("{\"attributes\":{\"name\":[\"Alice Jones\"]}}", model);
+        Map<String, Integer> sizes = new TreeMap<>();
+        for (String excludeDocs : Arrays.asList("all", "hop", "none")) {
+            Job job = new Job(null);
+            job.input(input);
+            job.excludeDocs(excludeDocs);
+            job.attributes().putAll(input.attributes());
+            Set<String> docIds = new TreeSet<>();
+            for (int i = 0; i < 10000; i++)
+                docIds.add(Json.quoteString("doc-" + i));
+            job.docIds().put("index", docIds);
+            Query query = new Query(job, 0, "index", Arrays.asList("a"), false, false);
+            sizes.put(excludeDocs, query.query().length());
+        }
+        Assert.assertTrue(sizes.get("all") > 10000 * "\"doc-0\",".length());
+        Assert.assertTrue(sizes.get("hop") < 1000);
+        Assert.assertTrue(sizes.get("none") < 1000);
+    }
+
+    /**
+     * A circuit breaker that trips when its limit would be exceeded.
+     */
+    private static class LimitedCircuitBreaker extends NoopCircuitBreaker {
+        private final long limit;
+        private long used = 0;
+
+        LimitedCircuitBreaker(long limit) {
+            super(CircuitBreaker.REQUEST);
+            this.limit = limit;
+        }
+
+        @Override
+        public void addEstimateBytesAndMaybeBreak(long bytes, String label) {
+            if (this.used + bytes > this.limit)
+                throw new CircuitBreakingException("[request] Data too large", this.used + bytes, this.limit, CircuitBreaker.Durability.TRANSIENT);
+            this.used += bytes;
+        }
+
+        @Override
+        public void addWithoutBreaking(long bytes) {
+            this.used += bytes;
+        }
+
+        @Override
+        public long getUsed() {
+            return this.used;
+        }
+    }
+
+    @Test
+    public void testReserveBytesMaxBytes() throws Exception {
+        LimitedCircuitBreaker breaker = new LimitedCircuitBreaker(Long.MAX_VALUE);
+        Job job = new Job(null);
+        job.breaker(breaker);
+        job.maxBytes(100);
+        Assert.assertTrue(job.reserveBytes(60));
+        Assert.assertTrue(job.reserveBytes(40));
+        Assert.assertFalse(job.truncated());
+        Assert.assertEquals(100, job.bytes());
+        Assert.assertEquals(100, breaker.getUsed());
+
+        // The job is truncated instead of exceeding its budget, and holds no more memory after that.
+        Assert.assertFalse(job.reserveBytes(1));
+        Assert.assertTrue(job.truncated());
+        Assert.assertFalse(job.reserveBytes(0));
+        Assert.assertEquals(100, job.bytes());
+        Assert.assertTrue(job.response().startsWith("{\"took\":0,\"truncated\":true,"));
+
+        // The memory is released from the circuit breaker when the job completes.
+        job.releaseBytes();
+        Assert.assertEquals(0, job.bytes());
+        Assert.assertEquals(0, breaker.getUsed());
+    }
+
+    @Test
+    public void testReserveBytesCircuitBreaker() throws Exception {
+        LimitedCircuitBreaker breaker = new LimitedCircuitBreaker(100);
+        Job job = new Job(null);
+        job.breaker(breaker);
+
+        // By default a job is limited only by the circuit breaker.
+        Assert.assertEquals(-1, job.maxBytes());
+        Assert.assertTrue(job.reserveBytes(100));
+        Assert.assertFalse(job.reserveBytes(1));
+        Assert.assertTrue(job.truncated());
+        Assert.assertEquals(100, breaker.getUsed());
+        job.releaseBytes();
+        Assert.assertEquals(0, breaker.getUsed());
+    }
+
+    @Test
+    public void testResponseNotTruncated() throws Exception {
+        Job job = new Job(null);
+        Assert.assertTrue(job.reserveBytes(1));
+        Assert.assertFalse(job.response().contains("truncated"));
+    }
+
+    private static Input nameInput() throws Exception {
+        return nameInput("Alice Jones");
+    }
+
+    private static Input nameInput(String name) throws Exception {
+        String attributes = "\"attributes\":{\"name\":{}}";
+        String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"name\"]}}";
+        String matchers = "\"matchers\":{\"x\":{\"clause\":{\"term\":{\"{{field}}\":\"{{value}}\"}}}}";
+        String indices = "\"indices\":{\"index\":{\"fields\":{\"name\":{\"attribute\":\"name\",\"matcher\":\"x\"}}}}";
+        Model model = new Model("{" + attributes + "," + resolvers + "," + matchers + "," + indices + "}");
+        return new Input("{\"attributes\":{\"name\":[" + Json.quoteString(name) + "]}}", model);
+    }
+
+    /**
+     * A client that searches docs held in memory, in the order that they were given. It supports the subset of the
+     * query DSL that resolution jobs of {@link #nameInput()} submit, and records every search request it receives.
+     */
+    private static class InMemorySearchClient implements InvocationHandler {
+        private final String indexName;
+        private final Map<String, JsonNode> docs = new LinkedHashMap<>();
+        private final List<SearchRequest> requests = new ArrayList<>();
+
+        InMemorySearchClient(String indexName, Map<String, String> docs) throws IOException {
+            this.indexName = indexName;
+            for (Map.Entry<String, String> doc : docs.entrySet())
+                this.docs.put(doc.getKey(), Json.MAPPER.readTree(doc.getValue()));
+        }
+
+        Client client() {
+            return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[]{ Client.class }, this);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (!method.getName().equals("execute") || args == null || args.length != 3 || !(args[1] instanceof SearchRequest))
+                throw new UnsupportedOperationException(method.toString());
+            SearchRequest request = (SearchRequest) args[1];
+            this.requests.add(request);
+            List<SearchHit> hits = new ArrayList<>();
+            int doc = 0;
+            for (Map.Entry<String, JsonNode> entry : this.docs.entrySet()) {
+                if (hits.size() < request.source().size() && matches(request.source().query(), entry.getKey(), entry.getValue())) {
+                    SearchHit hit = SearchHit.unpooled(doc, entry.getKey());
+                    hit.shard(new SearchShardTarget("node", new ShardId(this.indexName, "uuid", 0), null));
+                    hit.sourceRef(new BytesArray(entry.getValue().toString()));
+                    hits.add(hit);
+                }
+                doc++;
+            }
+            SearchHits searchHits = SearchHits.unpooled(hits.toArray(new SearchHit[0]), new TotalHits(hits.size(), TotalHits.Relation.EQUAL_TO), 1.0f);
+            SearchResponse response = new SearchResponse(searchHits, null, null, false, null, null, 1, null, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+            try {
+                ((ActionListener<SearchResponse>) args[2]).onResponse(response);
+            } finally {
+                response.decRef();
+            }
+            return null;
+        }
+
+        private static boolean matches(QueryBuilder query, String id, JsonNode doc) {
+            if (query instanceof BoolQueryBuilder) {
+                BoolQueryBuilder bool = (BoolQueryBuilder) query;
+                for (QueryBuilder clause : bool.must())
+                    if (!matches(clause, id, doc))
+                        return false;
+                for (QueryBuilder clause : bool.filter())
+                    if (!matches(clause, id, doc))
+                        return false;
+                for (QueryBuilder clause : bool.mustNot())
+                    if (matches(clause, id, doc))
+                        return false;
+                if (bool.should().isEmpty())
+                    return true;
+                int minimumShouldMatch = bool.minimumShouldMatch() != null ? Integer.parseInt(bool.minimumShouldMatch()) : (bool.must().isEmpty() && bool.filter().isEmpty() ? 1 : 0);
+                int shouldMatches = 0;
+                for (QueryBuilder clause : bool.should())
+                    if (matches(clause, id, doc))
+                        shouldMatches++;
+                return shouldMatches >= minimumShouldMatch;
+            } else if (query instanceof TermQueryBuilder) {
+                TermQueryBuilder term = (TermQueryBuilder) query;
+                JsonNode field = doc.get(term.fieldName());
+                if (field == null)
+                    return false;
+                for (JsonNode value : field.isArray() ? field : List.of(field))
+                    if (value.asText().equals(term.value().toString()))
+                        return true;
+                return false;
+            } else if (query instanceof ExistsQueryBuilder) {
+                JsonNode field = doc.get(((ExistsQueryBuilder) query).fieldName());
+                return field != null && !field.isNull();
+            } else if (query instanceof IdsQueryBuilder) {
+                return ((IdsQueryBuilder) query).ids().contains(id);
+            } else if (query instanceof MatchNoneQueryBuilder) {
+                return false;
+            } else if (query instanceof MatchAllQueryBuilder) {
+                return true;
+            }
+            throw new UnsupportedOperationException(query.getName());
+        }
+    }
+
+    /**
+     * Run a job to completion and get the _ids of its hits, each suffixed with the hop that fetched it.
+     *
+     * @param job The job to run.
+     * @return The _ids and hops of the hits, in the order of the response.
+     * @throws Exception
+     */
+    private static List<String> runHits(Job job) throws Exception {
+        List<String> responses = new ArrayList<>();
+        job.run(ActionListener.wrap(responses::add, e -> Assert.fail(e.getMessage())));
+        Assert.assertEquals(1, responses.size());
+        List<String> hits = new ArrayList<>();
+        for (JsonNode hit : Json.MAPPER.readTree(responses.get(0)).get("hits").get("hits"))
+            hits.add(hit.get("_id").asText() + "," + hit.get("_hop").asInt());
+        return hits;
+    }
+
+    /**
+     * The values of the input must be interned before the first hit is read, on the first run of a job and when the
+     * job is run again, so that the equal values of the docs share their instances.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInputValuesInterned() throws Exception {
+        InMemorySearchClient search = new InMemorySearchClient("index", Map.of("d1", "{\"name\":\"Alice Jones\"}"));
+        Job job = new Job(search.client());
+        job.input(nameInput());
+        Value value = job.input().attributes().get("name").values().iterator().next();
+        for (int run = 0; run < 2; run++) {
+            Assert.assertEquals(List.of("d1,0"), runHits(job));
+            Assert.assertEquals(1, job.values().size());
+            Assert.assertSame(value, job.values().intern(value));
+        }
+    }
+
+    /**
+     * Docs that are linked to the input by a chain of names. "Alice Jones" matches more docs than a capped query
+     * returns, so the docs that are fetched in the later hops depend on which docs the capped queries skipped.
+     *
+     * @return The docs by their _ids.
+     */
+    private static Map<String, String> linkedDocs() {
+        Map<String, String> docs = new LinkedHashMap<>();
+        docs.put("d1", "{\"name\":[\"Alice Jones\",\"Alice Smith\"]}");
+        docs.put("d2", "{\"name\":\"Alice Jones\"}");
+        docs.put("d3", "{\"name\":[\"Alice Jones\",\"Alice Brown\"]}");
+        docs.put("d4", "{\"name\":\"Alice Smith\"}");
+        docs.put("d5", "{\"name\":[\"Alice Brown\",\"Alice Green\"]}");
+        docs.put("d6", "{\"name\":\"Alice Jones\"}");
+        docs.put("d7", "{\"name\":\"Alice Green\"}");
+        return docs;
+    }
+
+    /**
+     * Delta queries must fetch the same docs as full queries when the resolvers have several weight levels. A new value
+     * of an attribute that only a higher weight resolver uses lets a doc match the lower weight resolvers by the values
+     * that were queried already.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDeltaQueriesWeighted() throws Exception {
+        String attributes = "\"attributes\":{\"name\":{},\"email\":{}}";
+        String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"name\"]},\"b\":{\"attributes\":[\"email\"],\"weight\":1}}";
+        String matchers = "\"matchers\":{\"x\":{\"clause\":{\"term\":{\"{{field}}\":\"{{value}}\"}}}}";
+        String indices = "\"indices\":{\"index\":{\"fields\":{\"name\":{\"attribute\":\"name\",\"matcher\":\"x\"},\"email\":{\"attribute\":\"email\",\"matcher\":\"x\"}}}}";
+        Model model = new Model("{" + attributes + "," + resolvers + "," + matchers + "," + indices + "}");
+        String input = "{\"attributes\":{\"name\":[\"Alice Jones\"],\"email\":[\"a@example.com\"]}}";
+
+        // "d2" matches the name, but only after "d1" reveals its email.
+        Map<String, String> docs = new LinkedHashMap<>();
+        docs.put("d1", "{\"name\":\"Alice Jones\",\"email\":[\"a@example.com\",\"b@example.com\"]}");
+        docs.put("d2", "{\"name\":\"Alice Jones\",\"email\":\"b@example.com\"}");
+        InMemorySearchClient search = new InMemorySearchClient("index", docs);
+        Job job = new Job(search.client());
+        job.input(new Input(input, model));
+        List<String> expected = runHits(job);
+        Assert.assertEquals(List.of("d1,0", "d2,1"), expected);
+        job = new Job(search.client());
+        job.input(new Input(input, model));
+        job.deltaQueries(true);
+        Assert.assertEquals(expected, runHits(job));
+    }
+
+    /**
+     * Delta queries must fetch the same docs in the same hops as full queries, even when the queries match more docs
+     * than they may return. The matches of the prior values that a capped query skipped must be fetched too.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDeltaQueriesCapped() throws Exception {
+        InMemorySearchClient search = new InMemorySearchClient("index", linkedDocs());
+        for (int maxDocsPerQuery : List.of(1, 2, 3, 1000)) {
+            Job job = new Job(search.client());
+            job.input(nameInput());
+            job.maxDocsPerQuery(maxDocsPerQuery);
+            List<String> expected = runHits(job);
+            job = new Job(search.client());
+            job.input(nameInput());
+            job.maxDocsPerQuery(maxDocsPerQuery);
+            job.deltaQueries(true);
+            Assert.assertEquals("max_docs_per_query=" + maxDocsPerQuery, expected, runHits(job));
+        }
+        Job job = new Job(search.client());
+        job.input(nameInput());
+        job.maxDocsPerQuery(2);
+        Assert.assertEquals(List.of("d1,0", "d2,0", "d3,1", "d4,1", "d5,2", "d6,2", "d7,3"), runHits(job));
+    }
+
+    /**
+     * Every "exclude_docs" strategy must fetch the same docs in the same hops, even when the queries match more docs
+     * than they may return. Docs that were fetched in prior hops must not crowd out the docs that were not.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExcludeDocsCapped() throws Exception {
+        InMemorySearchClient search = new InMemorySearchClient("index", linkedDocs());
+        for (int maxDocsPerQuery : List.of(1, 2, 3, 1000)) {
+            Job job = new Job(search.client());
+            job.input(nameInput());
+            job.maxDocsPerQuery(maxDocsPerQuery);
+            List<String> expected = runHits(job);
+            for (String excludeDocs : List.of("hop", "none")) {
+                for (boolean deltaQueries : List.of(false, true)) {
+                    job = new Job(search.client());
+                    job.input(nameInput());
+                    job.maxDocsPerQuery(maxDocsPerQuery);
+                    job.excludeDocs(excludeDocs);
+                    job.deltaQueries(deltaQueries);
+                    Assert.assertEquals(excludeDocs + " max_docs_per_query=" + maxDocsPerQuery, expected, runHits(job));
+                }
+            }
+        }
+    }
+
+    /**
+     * A capped query whose docs were crowded out by docs that were fetched already is submitted again in its hop, and
+     * the retry is logged with its own query number.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExcludeDocsCappedRetryNumbered() throws Exception {
+        InMemorySearchClient search = new InMemorySearchClient("index", linkedDocs());
+        Job job = new Job(search.client());
+        job.input(nameInput());
+        job.maxDocsPerQuery(2);
+        job.excludeDocs("none");
+        job.includeQueries(true);
+        runHits(job);
+        Set<String> numbers = new HashSet<>();
+        for (String logged : job.queries()) {
+            JsonNode query = Json.MAPPER.readTree(logged);
+            Assert.assertTrue(logged, numbers.add(query.get("_hop").asInt() + "," + query.get("_query").asInt()));
+        }
+        Assert.assertTrue(numbers.toString(), job.queries().size() > job.hop() + 1);
+    }
+
+    /**
+     * Compare the "exclude_docs" strategies on an entity that has 10,000 docs, which are fetched in groups of 1,000
+     * over 10 hops. Every strategy must fetch the same docs in the same hops, while the queries of the "hop" and "none"
+     * strategies must stay a fraction of the size of the queries of the "all" strategy.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExcludeDocsBenchmark() throws Exception {
+        Map<String, String> docs = new LinkedHashMap<>();
+        for (int i = 0; i < 10000; i++)
+            docs.put("doc-" + i, "{\"name\":[\"name-" + (i / 1000) + "\",\"name-" + (i / 1000 + 1) + "\"]}");
+        Map<String, Long> bytes = new TreeMap<>();
+        List<String> expected = null;
+        for (String excludeDocs : List.of("all", "hop", "none")) {
+            InMemorySearchClient search = new InMemorySearchClient("index", docs);
+            Job job = new Job(search.client());
+            job.input(nameInput("name-0"));
+            job.maxDocsPerQuery(20000);
+            job.excludeDocs(excludeDocs);
+            List<String> hits = runHits(job);
+            Assert.assertEquals(10000, hits.size());
+            if (expected == null)
+                expected = hits;
+            Assert.assertEquals(expected, hits);
+            Assert.assertEquals(11, search.requests.size());
+            long sum = 0;
+            for (SearchRequest request : search.requests)
+                sum += request.source().toString().length();
+            bytes.put(excludeDocs, sum);
+        }
+        Assert.assertTrue(bytes.toString(), bytes.get("hop") * 4 < bytes.get("all"));
+        Assert.assertTrue(bytes.toString(), bytes.get("none") < bytes.get("hop"));
+    }
+
+    /**
+     * A cancelled job stops before it submits any search, and returns the cancellation as its error.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCancelled() throws Exception {
+        Job job = new Job(null);
+        job.input(nameInput());
+        job.includeErrorTrace(false);
+        job.cancelled(() -> true);
+        List<String> responses = new ArrayList<>();
+        job.run(ActionListener.wrap(responses::add, e -> Assert.fail(e.getMessage())));
+        Assert.assertEquals(1, responses.size());
+        Assert.assertTrue(job.failed());
+        Assert.assertEquals(-1, job.hop());
+        Assert.assertTrue(responses.get(0).contains("\"type\":\"org.elasticsearch.tasks.TaskCancelledException\""));
+    }
+
+    /**
+     * The responses of the searches of a job are processed on the thread that delivered them,
+     * unless the job is given a dedicated executor.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExecutor() throws Exception {
+        Job job = new Job(null);
+        Assert.assertSame(EsExecutors.DIRECT_EXECUTOR_SERVICE, job.executor());
+        List<Runnable> forked = new ArrayList<>();
+        job.executor(forked::add);
+        job.executor().execute(() -> {});
+        Assert.assertEquals(1, forked.size());
+    }
+
+    /**
+     * A job that is out of time stops before it submits any more searches, and returns the hits it has so far.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMaxTime() throws Exception {
+        Job job = new Job(null);
+        job.input(nameInput());
+        job.maxTime(TimeValue.ZERO);
+        List<String> responses = new ArrayList<>();
+        job.run(ActionListener.wrap(responses::add, e -> Assert.fail(e.getMessage())));
+        Assert.assertEquals(1, responses.size());
+        Assert.assertFalse(job.failed());
+        Assert.assertTrue(job.timedOut());
+        Assert.assertTrue(responses.get(0).startsWith("{\"took\":"));
+        Assert.assertTrue(responses.get(0).contains(",\"timed_out\":true,\"hits\":{\"total\":0,"));
+    }
+
+    /**
+     * A job that has fetched as many docs as it may fetch stops before it submits any more searches,
+     * and the size of each search is trimmed to one more than the number of docs that the job has left.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMaxDocs() throws Exception {
+        Input input = nameInput();
+        Job job = new Job(null);
+        job.input(input);
+        job.attributes().putAll(input.attributes());
+        job.docIds().put("index", new HashSet<>());
+        Assert.assertEquals(1000, job.request(new Query(job, 0, "index", List.of("a"), false, false)).request().source().size());
+        job.maxDocs(2000);
+        Assert.assertEquals(1000, job.request(new Query(job, 0, "index", List.of("a"), false, false)).request().source().size());
+        job.maxDocs(5);
+        Assert.assertEquals(6, job.request(new Query(job, 0, "index", List.of("a"), false, false)).request().source().size());
+
+        job.maxDocs(0);
+        List<String> responses = new ArrayList<>();
+        job.run(ActionListener.wrap(responses::add, e -> Assert.fail(e.getMessage())));
+        Assert.assertEquals(1, responses.size());
+        Assert.assertFalse(job.failed());
+        Assert.assertTrue(job.truncated());
+
+        // The first hop has a search to submit, but the job has no client to submit it to.
+        Assert.assertEquals(0, job.hop());
+        Assert.assertTrue(responses.get(0).contains(",\"truncated\":true,\"hits\":{\"total\":0,"));
+    }
+
+    /**
+     * A job is truncated by its limit of docs only if there were more docs to fetch. A job that finds exactly as many
+     * docs as it may fetch ends normally, whether the docs are fetched by capped queries or not.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMaxDocsTruncated() throws Exception {
+        InMemorySearchClient search = new InMemorySearchClient("index", linkedDocs());
+        for (String excludeDocs : List.of("all", "hop", "none")) {
+            for (int maxDocsPerQuery : List.of(1, 2, 1000)) {
+                String message = "exclude_docs=" + excludeDocs + " max_docs_per_query=" + maxDocsPerQuery;
+                Job job = new Job(search.client());
+                job.input(nameInput());
+                job.excludeDocs(excludeDocs);
+                job.maxDocsPerQuery(maxDocsPerQuery);
+                List<String> expected = runHits(job);
+                Assert.assertFalse(message, job.truncated());
+
+                // Limit the job to all of the docs that it finds, and then to one doc fewer.
+                for (int fewer : List.of(0, 1)) {
+                    job = new Job(search.client());
+                    job.input(nameInput());
+                    job.excludeDocs(excludeDocs);
+                    job.maxDocsPerQuery(maxDocsPerQuery);
+                    job.maxDocs(expected.size() - fewer);
+                    Assert.assertEquals(message, expected.subList(0, expected.size() - fewer), runHits(job));
+                    Assert.assertEquals(message, fewer > 0, job.truncated());
+                }
+            }
+        }
+    }
+
+    /**
+     * The timeout of each search ends no later than the time budget of the job.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRequestTimeout() throws Exception {
+        Input input = nameInput();
+        Job job = new Job(null);
+        job.input(input);
+        job.attributes().putAll(input.attributes());
+        job.docIds().put("index", new HashSet<>());
+        Assert.assertNull(job.remainingNanos());
+        Assert.assertEquals(TimeValue.timeValueSeconds(10), job.request(new Query(job, 0, "index", List.of("a"), false, false)).request().source().timeout());
+
+        // A job that is out of time gives its searches the shortest timeout.
+        job.maxTime(TimeValue.ZERO);
+        job.run(ActionListener.noop());
+        job.docIds().put("index", new HashSet<>());
+        Assert.assertTrue(job.remainingNanos() <= 0);
+        Assert.assertEquals(TimeValue.timeValueMillis(1), job.request(new Query(job, 0, "index", List.of("a"), false, false)).request().source().timeout());
+    }
+
+    /**
+     * Fetch the whole "_source" only if it will be returned in the hits. Otherwise fetch only the index fields
+     * and their parents, which can hold the values of multi-fields.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMakeSourceClause() throws Exception {
+        String attributes = "\"attributes\":{\"name\":{},\"city\":{}}";
+        String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"name\"]}}";
+        String matchers = "\"matchers\":{\"x\":{\"clause\":{\"term\":{\"{{field}}\":\"{{value}}\"}}}}";
+        String indices = "\"indices\":{\"index\":{\"fields\":{\"name.keyword\":{\"attribute\":\"name\",\"matcher\":\"x\"},\"address.city\":{\"attribute\":\"city\"}}}}";
+        Model model = new Model("{" + attributes + "," + resolvers + "," + matchers + "," + indices + "}");
+        Job job = new Job(null);
+        job.input(new Input("{\"attributes\":{\"name\":[\"Alice Jones\"]}}", model));
+        Assert.assertEquals("\"_source\":true", Query.makeSourceClause(job, "index"));
+        job.includeSource(false);
+        Assert.assertEquals("\"_source\":{\"includes\":[\"address\",\"address.city\",\"name\",\"name.keyword\"]}", Query.makeSourceClause(job, "index"));
+        job.includeSource(true);
+        job.includeHits(false);
+        Assert.assertEquals("\"_source\":{\"includes\":[\"address\",\"address.city\",\"name\",\"name.keyword\"]}", Query.makeSourceClause(job, "index"));
+    }
+
+    /**
+     * Fetch only the part of a nested object that holds an index field, and not the rest of its top-level object.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMakeSourceClauseNestedPath() throws Exception {
+        String attributes = "\"attributes\":{\"name\":{},\"city\":{}}";
+        String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"name\"]}}";
+        String matchers = "\"matchers\":{\"x\":{\"clause\":{\"term\":{\"{{field}}\":\"{{value}}\"}}}}";
+        String indices = "\"indices\":{\"index\":{\"fields\":{\"person.name.keyword\":{\"attribute\":\"name\",\"matcher\":\"x\"},\"person.address.city\":{\"attribute\":\"city\"}}}}";
+        Model model = new Model("{" + attributes + "," + resolvers + "," + matchers + "," + indices + "}");
+        Job job = new Job(null);
+        job.input(new Input("{\"attributes\":{\"name\":[\"Alice Jones\"]}}", model));
+        job.includeSource(false);
+        Assert.assertEquals("\"_source\":{\"includes\":[\"person.address\",\"person.address.city\",\"person.name\",\"person.name.keyword\"]}", Query.makeSourceClause(job, "index"));
+    }
+
     /**
      * Populate the clause of a matcher by substituting the {{ field }} and {{ value }} variables.
      *
@@ -86,6 +784,32 @@ public class JobTest {
         Assert.assertEquals(matcherClause, expected);
     }
 
+    /**
+     * Populate the clause of a matcher whose variables repeat, using a value that has characters with special meaning
+     * in JSON strings and regular expression replacements. Leave unrecognized variables as they are.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPopulateMatcherClauseSpecialCharacters() throws Exception {
+        String matcherJson = "{\n" +
+                "  \"clause\": {\n" +
+                "    \"multi_match\": {\n" +
+                "      \"query\": \"{{ value }}\",\n" +
+                "      \"fields\": [ \"{{ field }}\", \"{{field}}.keyword\" ],\n" +
+                "      \"_name\": \"{{ value }} {{ other }}\"\n" +
+                "    }" +
+                "  }\n" +
+                "}";
+        Matcher matcher = new Matcher("matcher_name", matcherJson);
+        TreeMap<String, String> params = new TreeMap<>();
+        String value = Json.escapeString("$1 \"Al\\ice\"");
+        String matcherClause = Query.populateMatcherClause(matcher, "field_name", value, params);
+        String expected = "{\"multi_match\":{\"query\":\"$1 \\\"Al\\\\ice\\\"\",\"fields\":[\"field_name\",\"field_name.keyword\"],\"_name\":\"$1 \\\"Al\\\\ice\\\" {{ other }}\"}}";
+        Assert.assertEquals(matcherClause, expected);
+        Assert.assertEquals(Json.MAPPER.readTree(matcherClause).get("multi_match").get("query").asText(), "$1 \"Al\\ice\"");
+    }
+
     /**
      * Populate the clause of a matcher by substituting the {{ field }} and {{ value }} variables.
      * Supply parameters that don't exist. Ensure they are ignored without failing the Query.
@@ -224,7 +948,7 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", false, new AtomicInteger());
+        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", null);
         String expected = "{\"match\":{\"field_phone\":{\"query\":\"555-123-4567\",\"fuzziness\":\"1\"}}}";
         String actual = attributeClauses.get(0);
         Assert.assertEquals(expected, actual);
@@ -274,7 +998,7 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", false, new AtomicInteger());
+        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", null);
         String expected = "{\"match\":{\"field_phone\":{\"query\":\"555-123-4567\",\"fuzziness\":\"1\"}}}";
         String actual = attributeClauses.get(0);
         Assert.assertEquals(expected, actual);
@@ -323,7 +1047,7 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", false, new AtomicInteger());
+        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", null);
         String expected = "{\"match\":{\"field_phone\":{\"query\":\"555-123-4567\",\"fuzziness\":\"2\"}}}";
         String actual = attributeClauses.get(0);
         Assert.assertEquals(expected, actual);
@@ -378,7 +1102,7 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", false, new AtomicInteger());
+        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", null);
         String expected = "{\"range\":{\"field_timestamp\":{\"gte\":\"123 Main St||-30m\",\"lte\":\"123 Main St||+30m\",\"format\":\"yyyy-MM-dd'T'HH:mm:ss\"}}}";
         String actual = attributeClauses.get(0);
         Assert.assertEquals(expected, actual);
@@ -437,7 +1161,7 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", false, new AtomicInteger());
+        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", null);
         String expected = "{\"range\":{\"field_timestamp\":{\"gte\":\"123 Main St||-30m\",\"lte\":\"123 Main St||+30m\",\"format\":\"yyyy-MM-dd'T'HH:mm:ss\"}}}";
         String actual = attributeClauses.get(0);
         Assert.assertEquals(expected, actual);
@@ -501,7 +1225,7 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", false, new AtomicInteger());
+        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", null);
         String expected = "{\"range\":{\"field_timestamp\":{\"gte\":\"123 Main St||-15m\",\"lte\":\"123 Main St||+15m\",\"format\":\"yyyy-MM-dd\"}}}";
         String actual = attributeClauses.get(0);
         Assert.assertEquals(expected, actual);
@@ -547,7 +1271,7 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", false, new AtomicInteger());
+        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", null);
     }
 
     /**
@@ -591,17 +1315,17 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", false, new AtomicInteger());
+        List<String> attributeClauses = Query.makeAttributeClauses(input.model(), "index", input.attributes(), "filter", null);
     }
 
     /**
-     * Make the "script_fields" clause for a "date" type attribute where the "format" param is specified only in the
+     * Make the "docvalue_fields" clause for a "date" type attribute where the "format" param is specified only in the
      * input attribute.
      *
      * @throws Exception
      */
     @Test
-    public void testMakeScriptFieldsClauseTypeDateFormatInputAttributeOnly() throws Exception {
+    public void testMakeDocValueFieldsClauseTypeDateFormatInputAttributeOnly() throws Exception {
         String attributes = "\"attributes\":{\"attribute_ip\":{},\"attribute_timestamp\":{\"type\":\"date\"}}";
         String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"attribute_ip\",\"attribute_timestamp\"]}}";
         String matchers = "\"matchers\":{\n" +
@@ -652,19 +1376,19 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        String scriptFieldsClause = Query.makeScriptFieldsClause(input, "index");
-        String expected = "\"script_fields\":{\"field_timestamp\":{\"script\":{\"lang\":\"painless\",\"source\":\"DateFormat df = new SimpleDateFormat(params.format); df.setTimeZone(TimeZone.getTimeZone('UTC')); return df.format(doc[params.field].value.toInstant().toEpochMilli())\",\"params\":{\"field\":\"field_timestamp\",\"format\":\"yyyy-MM-dd\"}}}}";
-        Assert.assertEquals(scriptFieldsClause, expected);
+        String docValueFieldsClause = Query.makeDocValueFieldsClause(input, "index");
+        String expected = "\"docvalue_fields\":[{\"field\":\"field_timestamp\",\"format\":\"epoch_millis\"}]";
+        Assert.assertEquals(docValueFieldsClause, expected);
     }
 
     /**
-     * Make the "script_fields" clause for a "date" type attribute where the "format" param is specified only in the
+     * Make the "docvalue_fields" clause for a "date" type attribute where the "format" param is specified only in the
      * matcher.
      *
      * @throws Exception
      */
     @Test
-    public void testMakeScriptFieldsClauseTypeDateFormatMatcherOnly() throws Exception {
+    public void testMakeDocValueFieldsClauseTypeDateFormatMatcherOnly() throws Exception {
         String attributes = "\"attributes\":{\"attribute_ip\":{},\"attribute_timestamp\":{\"type\":\"date\"}}";
         String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"attribute_ip\",\"attribute_timestamp\"]}}";
         String matchers = "\"matchers\":{\n" +
@@ -718,19 +1442,19 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        String scriptFieldsClause = Query.makeScriptFieldsClause(input, "index");
-        String expected = "\"script_fields\":{\"field_timestamp\":{\"script\":{\"lang\":\"painless\",\"source\":\"DateFormat df = new SimpleDateFormat(params.format); df.setTimeZone(TimeZone.getTimeZone('UTC')); return df.format(doc[params.field].value.toInstant().toEpochMilli())\",\"params\":{\"field\":\"field_timestamp\",\"format\":\"yyyy-MM-dd\"}}}}";
-        Assert.assertEquals(scriptFieldsClause, expected);
+        String docValueFieldsClause = Query.makeDocValueFieldsClause(input, "index");
+        String expected = "\"docvalue_fields\":[{\"field\":\"field_timestamp\",\"format\":\"epoch_millis\"}]";
+        Assert.assertEquals(docValueFieldsClause, expected);
     }
 
     /**
-     * Make the "script_fields" clause for a "date" type attribute where the "format" param is specified only in the
+     * Make the "docvalue_fields" clause for a "date" type attribute where the "format" param is specified only in the
      * model attribute.
      *
      * @throws Exception
      */
     @Test
-    public void testMakeScriptFieldsClauseTypeDateFormatModelAttributeOnly() throws Exception {
+    public void testMakeDocValueFieldsClauseTypeDateFormatModelAttributeOnly() throws Exception {
         String attributes = "\"attributes\":{\"attribute_ip\":{},\"attribute_timestamp\":{\"type\":\"date\",\"params\":{\"format\":\"yyyy-MM-dd\"}}}";
         String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"attribute_ip\",\"attribute_timestamp\"]}}";
         String matchers = "\"matchers\":{\n" +
@@ -780,19 +1504,19 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        String scriptFieldsClause = Query.makeScriptFieldsClause(input, "index");
-        String expected = "\"script_fields\":{\"field_timestamp\":{\"script\":{\"lang\":\"painless\",\"source\":\"DateFormat df = new SimpleDateFormat(params.format); df.setTimeZone(TimeZone.getTimeZone('UTC')); return df.format(doc[params.field].value.toInstant().toEpochMilli())\",\"params\":{\"field\":\"field_timestamp\",\"format\":\"yyyy-MM-dd\"}}}}";
-        Assert.assertEquals(scriptFieldsClause, expected);
+        String docValueFieldsClause = Query.makeDocValueFieldsClause(input, "index");
+        String expected = "\"docvalue_fields\":[{\"field\":\"field_timestamp\",\"format\":\"epoch_millis\"}]";
+        Assert.assertEquals(docValueFieldsClause, expected);
     }
 
     /**
-     * Make the "script_fields" clause for a "date" type attribute where the "format" param is specified both in the
+     * Make the "docvalue_fields" clause for a "date" type attribute where the "format" param is specified both in the
      * model attribute and the matcher. The param of the model attribute should override the param of the matcher.
      *
      * @throws Exception
      */
     @Test
-    public void testMakeScriptFieldsClauseTypeDateFormatModelAttributeOverridesMatcher() throws Exception {
+    public void testMakeDocValueFieldsClauseTypeDateFormatModelAttributeOverridesMatcher() throws Exception {
         String attributes = "\"attributes\":{\"attribute_ip\":{},\"attribute_timestamp\":{\"type\":\"date\",\"params\":{\"format\":\"yyyy-MM-dd'T'HH:mm:ss\"}}}";
         String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"attribute_ip\",\"attribute_timestamp\"]}}";
         String matchers = "\"matchers\":{\n" +
@@ -845,20 +1569,20 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        String scriptFieldsClause = Query.makeScriptFieldsClause(input, "index");
-        String expected = "\"script_fields\":{\"field_timestamp\":{\"script\":{\"lang\":\"painless\",\"source\":\"DateFormat df = new SimpleDateFormat(params.format); df.setTimeZone(TimeZone.getTimeZone('UTC')); return df.format(doc[params.field].value.toInstant().toEpochMilli())\",\"params\":{\"field\":\"field_timestamp\",\"format\":\"yyyy-MM-dd'T'HH:mm:ss\"}}}}";
-        Assert.assertEquals(scriptFieldsClause, expected);
+        String docValueFieldsClause = Query.makeDocValueFieldsClause(input, "index");
+        String expected = "\"docvalue_fields\":[{\"field\":\"field_timestamp\",\"format\":\"epoch_millis\"}]";
+        Assert.assertEquals(docValueFieldsClause, expected);
     }
 
     /**
-     * Make the "script_fields" clause for a "date" type attribute where the "format" param is specified both in the
+     * Make the "docvalue_fields" clause for a "date" type attribute where the "format" param is specified both in the
      * input attribute and the model attribute. The param of the input attribute should override the param of the
      * model attribute.
      *
      * @throws Exception
      */
     @Test
-    public void testMakeScriptFieldsClauseTypeDateFormatInputAttributeOverridesModelAttribute() throws Exception {
+    public void testMakeDocValueFieldsClauseTypeDateFormatInputAttributeOverridesModelAttribute() throws Exception {
         String attributes = "\"attributes\":{\"attribute_ip\":{},\"attribute_timestamp\":{\"type\":\"date\",\"params\":{\"format\":\"yyyy-MM-dd'T'HH:mm:ss\"}}}";
         String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"attribute_ip\",\"attribute_timestamp\"]}}";
         String matchers = "\"matchers\":{\n" +
@@ -912,20 +1636,20 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        String scriptFieldsClause = Query.makeScriptFieldsClause(input, "index");
-        String expected = "\"script_fields\":{\"field_timestamp\":{\"script\":{\"lang\":\"painless\",\"source\":\"DateFormat df = new SimpleDateFormat(params.format); df.setTimeZone(TimeZone.getTimeZone('UTC')); return df.format(doc[params.field].value.toInstant().toEpochMilli())\",\"params\":{\"field\":\"field_timestamp\",\"format\":\"yyyy-MM-dd'T'HH:mm:ss.SSS\"}}}}";
-        Assert.assertEquals(scriptFieldsClause, expected);
+        String docValueFieldsClause = Query.makeDocValueFieldsClause(input, "index");
+        String expected = "\"docvalue_fields\":[{\"field\":\"field_timestamp\",\"format\":\"epoch_millis\"}]";
+        Assert.assertEquals(docValueFieldsClause, expected);
     }
 
     /**
-     * Make the "script_fields" clause for a "date" type attribute where the "format" param is specified both in the
+     * Make the "docvalue_fields" clause for a "date" type attribute where the "format" param is specified both in the
      * input attribute and the model attribute, but the value of the input attribute param is null. The param of the
      * input attribute should not override the non-null param of the model attribute.
      *
      * @throws Exception
      */
     @Test
-    public void testMakeScriptFieldsClauseTypeDateFormatNullNotOverrides() throws Exception {
+    public void testMakeDocValueFieldsClauseTypeDateFormatNullNotOverrides() throws Exception {
         String attributes = "\"attributes\":{\"attribute_ip\":{},\"attribute_timestamp\":{\"type\":\"date\",\"params\":{\"format\":\"yyyy-MM-dd'T'HH:mm:ss\"}}}";
         String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"attribute_ip\",\"attribute_timestamp\"]}}";
         String matchers = "\"matchers\":{\n" +
@@ -979,19 +1703,19 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        String scriptFieldsClause = Query.makeScriptFieldsClause(input, "index");
-        String expected = "\"script_fields\":{\"field_timestamp\":{\"script\":{\"lang\":\"painless\",\"source\":\"DateFormat df = new SimpleDateFormat(params.format); df.setTimeZone(TimeZone.getTimeZone('UTC')); return df.format(doc[params.field].value.toInstant().toEpochMilli())\",\"params\":{\"field\":\"field_timestamp\",\"format\":\"yyyy-MM-dd'T'HH:mm:ss\"}}}}";
-        Assert.assertEquals(scriptFieldsClause, expected);
+        String docValueFieldsClause = Query.makeDocValueFieldsClause(input, "index");
+        String expected = "\"docvalue_fields\":[{\"field\":\"field_timestamp\",\"format\":\"epoch_millis\"}]";
+        Assert.assertEquals(docValueFieldsClause, expected);
     }
 
     /**
-     * The "script_fields" clause for a "date" type attribute must throw an exception if the "format" param is missing
+     * The "docvalue_fields" clause for a "date" type attribute must throw an exception if the "format" param is missing
      * from the matcher, the model attribute, and the input attribute.
      *
      * @throws Exception
      */
     @Test(expected = ValidationException.class)
-    public void testMakeScriptFieldsClauseTypeDateFormatMissing() throws Exception {
+    public void testMakeDocValueFieldsClauseTypeDateFormatMissing() throws Exception {
         String attributes = "\"attributes\":{\"attribute_ip\":{},\"attribute_timestamp\":{\"type\":\"date\"}}";
         String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"attribute_ip\",\"attribute_timestamp\"]}}";
         String matchers = "\"matchers\":{\n" +
@@ -1041,16 +1765,16 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        Query.makeScriptFieldsClause(input, "index");
+        Query.makeDocValueFieldsClause(input, "index");
     }
 
     /**
-     * The "script_fields" clause for a "date" type attribute must throw an exception if the only "format" param is null.
+     * The "docvalue_fields" clause for a "date" type attribute must throw an exception if the only "format" param is null.
      *
      * @throws Exception
      */
     @Test(expected = ValidationException.class)
-    public void testMakeScriptFieldsClauseTypeDateFormatNull() throws Exception {
+    public void testMakeDocValueFieldsClauseTypeDateFormatNull() throws Exception {
         String attributes = "\"attributes\":{\"attribute_ip\":{},\"attribute_timestamp\":{\"type\":\"date\"}}";
         String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"attribute_ip\",\"attribute_timestamp\"]}}";
         String matchers = "\"matchers\":{\n" +
@@ -1101,7 +1825,58 @@ public class JobTest {
                 "  }\n" +
                 "}";
         Input input = new Input(json, model);
-        Query.makeScriptFieldsClause(input, "index");
+        Query.makeDocValueFieldsClause(input, "index");
+    }
+
+    private static Input dateInput(String format) throws Exception {
+        String attributes = "\"attributes\":{\"attribute_timestamp\":{\"type\":\"date\",\"params\":{\"format\":" + Json.quoteString(format) + "}}}";
+        String resolvers = "\"resolvers\":{\"a\":{\"attributes\":[\"attribute_timestamp\"]}}";
+        String matchers = "\"matchers\":{\"matcher_timestamp\":{\"clause\":{\"term\":{\"{{ field }}\":\"{{ value }}\"}}}}";
+        String indices = "\"indices\":{\"index\":{\"fields\":{\"field_timestamp\":{\"attribute\":\"attribute_timestamp\",\"matcher\":\"matcher_timestamp\"}}}}";
+        Model model = new Model("{" + attributes + "," + resolvers + "," + matchers + "," + indices + "}");
+        return new Input("{\"attributes\":{\"attribute_timestamp\":[\"2020-01-01\"]}}", model);
+    }
+
+    /**
+     * The "docvalue_fields" clause for a "date" type attribute must throw an exception if the "format" param is not a
+     * valid pattern.
+     *
+     * @throws Exception
+     */
+    @Test(expected = ValidationException.class)
+    public void testMakeDocValueFieldsClauseTypeDateFormatInvalid() throws Exception {
+        Query.makeDocValueFieldsClause(dateInput("yyyy-MM-dd q"), "index");
+    }
+
+    /**
+     * The doc values of a "date" index field are formatted by the SimpleDateFormat pattern of the "format" param,
+     * whose letters "u" and "Y" mean the day number of the week and the week year, unlike in java.time patterns.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFormatDatesSimpleDateFormat() throws Exception {
+        SimpleDateFormat formatter = Query.dateFormatter(dateInput("YYYY-MM-dd u"), "index", "attribute_timestamp", "field_timestamp");
+
+        // Monday, December 30, 2019 is in the first week of 2020.
+        Assert.assertEquals(List.of("2020-12-30 1"), Job.formatDates(List.of("1577664000000"), formatter));
+    }
+
+    /**
+     * Every doc value of a multi-valued "date" index field is formatted, including the fractional values of "date_nanos"
+     * index fields.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFormatDatesMultiValued() throws Exception {
+        SimpleDateFormat formatter = Query.dateFormatter(dateInput("yyyy-MM-dd'T'HH:mm:ss.SSS"), "index", "attribute_timestamp", "field_timestamp");
+        List<Object> values = new ArrayList<>();
+        values.add("1577664000000");
+        values.add(null);
+        values.add(1577750400001L);
+        values.add("1577836800002.123456");
+        Assert.assertEquals(List.of("2019-12-30T00:00:00.000", "2019-12-31T00:00:00.001", "2020-01-01T00:00:00.002"), Job.formatDates(values, formatter));
     }
 
     /**
@@ -1178,6 +1953,29 @@ public class JobTest {
         Assert.assertEquals(Job.calculateCompositeIdentityConfidenceScore(Arrays.asList(0.75, 0.85)), 0.94444444444, 0.0000000001);
     }
 
+    /**
+     * The primitive calculations of the composite identity confidence score must match the calculation of a list.
+     */
+    @Test
+    public void testCalculateCompositeIdentityConfidenceScorePrimitive() {
+        double[] scores = new double[]{ 0.55, 0.75, 0.65, 0.99 };
+        Assert.assertEquals(Job.calculateCompositeIdentityConfidenceScore(scores, 3), 0.87195121951, 0.0000000001);
+        Assert.assertEquals(Job.calculateCompositeIdentityConfidenceScore(new double[]{ 0.75, 1.00, 0.00 }, 3), 0.5, 0.0000000001);
+        Assert.assertTrue(Double.isNaN(Job.calculateCompositeIdentityConfidenceScore(scores, 0)));
+
+        // Only the highest score of each attribute is combined.
+        Job.CompositeIdentityConfidenceScore composite = new Job.CompositeIdentityConfidenceScore();
+        Assert.assertTrue(composite.isEmpty());
+        composite.add("a", 0.55);
+        Assert.assertFalse(composite.isEmpty());
+        Assert.assertEquals(composite.score(), 0.55, 0.0000000001);
+        composite.add("b", 0.60);
+        composite.add("b", 0.75);
+        composite.add("b", 0.70);
+        composite.add("c", 0.65);
+        Assert.assertEquals(composite.score(), Job.calculateCompositeIdentityConfidenceScore(Arrays.asList(0.55, 0.75, 0.65)), 0.0000000001);
+    }
+
     /**
      * Extract attribute values from a document "_source" given the path to the index field.
      *
@@ -1258,4 +2056,44 @@ public class JobTest {
         Assert.assertEquals(Arrays.asList(values.get("5"), values.get("6")), Job.extractValues(json, path4, new ArrayList<>()));
     }
 
+    private static SearchHit searchHit() {
+        SearchHit hit = SearchHit.unpooled(0, "a");
+        hit.shard(new SearchShardTarget("node", new ShardId("index", "uuid", 0), null));
+        hit.score(1.5f);
+        hit.version(2);
+        hit.setSeqNo(3);
+        hit.setPrimaryTerm(1);
+        hit.sourceRef(new BytesArray("{\"name\":\"Alice\",\"dob\":\"1990-01-01\"}"));
+        hit.addDocumentFields(
+            Map.of("dob", new DocumentField("dob", List.of("1990-01-01"))),
+            Map.of("_routing", new DocumentField("_routing", List.of("r")), "_ignored", new DocumentField("_ignored", List.of("dob")))
+        );
+        hit.matchedQueries(Map.of("name:name:exact:QWxpY2U=:0", 1.0f));
+        return hit;
+    }
+
+    @Test
+    public void testSerializeHitMetadata() throws Exception {
+        SearchHit hit = searchHit();
+
+        // The metadata is serialized as Elasticsearch would serialize it, without the fields that zentity replaces.
+        ObjectNode expected = (ObjectNode) Json.ORDERED_MAPPER.readTree(Strings.toString(hit));
+        expected.remove(List.of("_score", "_source", "fields", "matched_queries"));
+        Assert.assertEquals(expected.toString(), Job.serializeHitMetadata(hit).toString());
+        Assert.assertEquals("{\"name\":\"Alice\",\"dob\":\"1990-01-01\"}", Source.read(hit, Set.of(), true).json());
+        Assert.assertEquals("[\"1990-01-01\"]", Json.ORDERED_MAPPER.valueToTree(hit.getDocumentFields().get("dob").getValues()).toString());
+    }
+
+    @Test
+    public void testSerializeResponseWithoutHits() throws Exception {
+        SearchHits hits = SearchHits.unpooled(new SearchHit[]{ searchHit() }, new TotalHits(1, TotalHits.Relation.EQUAL_TO), 1.5f);
+        SearchResponse response = new SearchResponse(hits, null, null, false, null, null, 1, null, 1, 1, 0, 7, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+        try {
+            ObjectNode expected = (ObjectNode) Json.ORDERED_MAPPER.readTree(response.toString());
+            ((ObjectNode) expected.get("hits")).remove("hits");
+            Assert.assertEquals(expected.toString(), Job.serializeResponseWithoutHits(response));
+        } finally {
+            response.decRef();
+        }
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ * zentity
+ * Copyright © 2018-2025 Dave Moore
+ * https://zentity.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.zentity.resolution;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.zentity.common.Json;
+import io.zentity.model.Index;
+import io.zentity.model.IndexField;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.search.SearchHit;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+public class SourceTest {
+
+    private static final String SOURCE = "{\"a0\":{\"b0\":{\"c0\":0,\"d0\":9}},\"a1\":{\"b1\":{\"c1\":[1,2],\"d1\":[9,9]}},\"a2\":{\"b2\":[{\"c2\":3,\"d2\":9},{\"c2\":4,\"d2\":9}]},\"a.3\":{\"b.3\":[{\"c.3\":5,\"d.3\":9},{\"c.3\":6,\"d.3\":9}]},\"e\":{\"f\":[\"x\",null,true,1.5,1e300,12345678901234567890]}}";
+    private static final String INDEX = "{\"fields\":{" +
+        "\"a0.b0.c0\":{\"attribute\":\"foo\"}," +
+        "\"a1.b1.c1\":{\"attribute\":\"foo\"}," +
+        "\"a2.b2.c2\":{\"attribute\":\"foo\"}," +
+        "\"a.3.b.3.c.3\":{\"attribute\":\"foo\"}," +
+        "\"e.f.keyword\":{\"attribute\":\"foo\"}}}";
+
+    private static SearchHit searchHit(String source) {
+        SearchHit hit = SearchHit.unpooled(0, "a");
+        hit.sourceRef(new BytesArray(source));
+        return hit;
+    }
+
+    @Test
+    public void testReadSkipsUnmappedKeys() throws Exception {
+        Index index = new Index("index_name", INDEX);
+        Source source = Source.read(searchHit(SOURCE), index.sourceKeys(), false);
+        Assert.assertNull(source.json());
+        Assert.assertEquals(
+            "{\"a0\":{\"b0\":{\"c0\":0}},\"a1\":{\"b1\":{\"c1\":[1,2]}},\"a2\":{\"b2\":[{\"c2\":3},{\"c2\":4}]},\"a.3\":{\"b.3\":[{\"c.3\":5},{\"c.3\":6}]},\"e\":{\"f\":[\"x\",null,true,1.5,1.0E300,12345678901234567890]}}",
+            source.fields().toString());
+    }
+
+    @Test
+    public void testReadExtractsSameValuesAsTree() throws Exception {
+        Index index = new Index("index_name", INDEX);
+        JsonNode tree = Json.ORDERED_MAPPER.readTree(SOURCE);
+        Source source = Source.read(searchHit(SOURCE), index.sourceKeys(), false);
+        for (IndexField indexField : index.fields().values()) {
+            List<JsonNode> expected = new ArrayList<>();
+            List<JsonNode> actual = new ArrayList<>();
+            indexField.extractValues(tree, expected);
+            indexField.extractValues(source.fields(), actual);
+            Assert.assertFalse(expected.isEmpty());
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testReadCopiesCompactJson() throws Exception {
+        String json = "{ \"a\" : \"\\u00e9\\n\\\"\", \"b\": [ 1, -2.50, 3E2, {} ],\n \"c\": { \"d\": null, \"e\": false } }";
+        Source source = Source.read(searchHit(json), Set.of("c", "d"), true);
+        Assert.assertEquals(Json.ORDERED_MAPPER.readTree(json).toString(), source.json());
+        Assert.assertEquals("{\"c\":{\"d\":null}}", source.fields().toString());
+    }
+
+    @Test
+    public void testReadNoSource() throws Exception {
+        Assert.assertNull(Source.read(SearchHit.unpooled(0, "a"), Set.of("a"), true));
+    }
+}
@@ -30,6 +30,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Set;
 
 public class InputTest {
 
@@ -973,6 +974,21 @@ public class InputTest {
         Assert.assertTrue(input.model().indices().containsKey("index_name_c"));
     }
 
+    @Test
+    public void testValidScopeSharedModel() throws Exception {
+        Model model = new Model(ModelTest.VALID_OBJECT);
+        Input input1 = new Input("{" + validAttributes + ",\"scope\":{\"exclude\":{\"indices\":\"index_name_a\",\"resolvers\":\"resolver_name_a\"}}}", model);
+        Input input2 = new Input("{" + validAttributes + ",\"scope\":{\"include\":{\"indices\":\"index_name_a\",\"resolvers\":\"resolver_name_a\"}}}", model);
+        Assert.assertEquals(Set.of("index_name_b", "index_name_c"), input1.model().indices().keySet());
+        Assert.assertEquals(Set.of("resolver_name_b", "resolver_name_c"), input1.model().resolvers().keySet());
+        Assert.assertEquals(Set.of("index_name_a"), input2.model().indices().keySet());
+        Assert.assertEquals(Set.of("resolver_name_a"), input2.model().resolvers().keySet());
+        Assert.assertEquals(Set.of("index_name_a", "index_name_b", "index_name_c"), model.indices().keySet());
+        Assert.assertEquals(Set.of("resolver_name_a", "resolver_name_b", "resolver_name_c"), model.resolvers().keySet());
+        Assert.assertSame(model.indices().get("index_name_b"), input1.model().indices().get("index_name_b"));
+        Assert.assertSame(model.attributes(), input1.model().attributes());
+    }
+
     @Test(expected = ValidationException.class)
     public void testInvalidScopeExcludeIndicesNotFoundArray() throws Exception {
         JsonNode requestBody = parseRequestBody(inputScopeExcludeIndices(invalidScopeIndicesNotFoundArray));
@@ -0,0 +1,106 @@
+/*
+ * zentity
+ * Copyright © 2018-2025 Dave Moore
+ * https://zentity.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.zentity.resolution.input.value;
+
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.TreeSet;
+
+public class ValueTest {
+
+    @Test
+    public void testEquals() throws Exception {
+        Assert.assertEquals(Value.create("string", TextNode.valueOf("a")), Value.create("string", TextNode.valueOf("a")));
+        Assert.assertEquals(Value.create("number", IntNode.valueOf(1)), Value.create("number", LongNode.valueOf(1)));
+
+        // "Aa" and "BB" have the same hash code.
+        Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+        Assert.assertNotEquals(Value.create("string", TextNode.valueOf("Aa")), Value.create("string", TextNode.valueOf("BB")));
+
+        // Values of different types are not equal even if they serialize the same.
+        Assert.assertNotEquals(Value.create("string", TextNode.valueOf("true")), Value.create("boolean", BooleanNode.TRUE));
+        Assert.assertNotEquals(Value.create("string", TextNode.valueOf("a")), null);
+
+        // The order of values is consistent with their equality.
+        Value stringTrue = Value.create("string", TextNode.valueOf("true"));
+        Value booleanTrue = Value.create("boolean", BooleanNode.TRUE);
+        Assert.assertNotEquals(0, stringTrue.compareTo(booleanTrue));
+        Assert.assertEquals(-Integer.signum(stringTrue.compareTo(booleanTrue)), Integer.signum(booleanTrue.compareTo(stringTrue)));
+        Assert.assertEquals(0, Value.create("number", IntNode.valueOf(1)).compareTo(Value.create("number", LongNode.valueOf(1))));
+        Assert.assertEquals(2, new TreeSet<>(List.of(stringTrue, booleanTrue)).size());
+    }
+
+    @Test
+    public void testIntern() throws Exception {
+        ValueTable values = new ValueTable();
+        Value a = values.intern("string", TextNode.valueOf("a"));
+        Assert.assertSame(a, values.intern("string", TextNode.valueOf("a")));
+        Assert.assertNotSame(a, values.intern("string", TextNode.valueOf("b")));
+
+        // Different nodes that serialize to the same value share one instance.
+        Value one = values.intern("number", IntNode.valueOf(1));
+        Assert.assertSame(one, values.intern("number", LongNode.valueOf(1)));
+        Assert.assertEquals(3, values.size());
+
+        // A value that was created elsewhere is shared by equal values that are found later.
+        Value c = Value.create("string", TextNode.valueOf("c"));
+        Assert.assertSame(c, values.intern(c));
+        Assert.assertSame(c, values.intern("string", TextNode.valueOf("c")));
+        Assert.assertSame(c, values.intern(Value.create("string", TextNode.valueOf("c"))));
+    }
+
+    @Test
+    public void testRamBytesUsed() throws Exception {
+        ValueTable values = new ValueTable();
+        Assert.assertEquals(0, values.ramBytesUsed());
+        Value a = values.intern("string", TextNode.valueOf("a"));
+        long bytes = values.ramBytesUsed();
+        Assert.assertTrue(bytes > 0);
+
+        // The memory of a value is accounted once, whether it was interned from a node or not.
+        Assert.assertEquals(ValueTable.entryBytes(a), bytes);
+        ValueTable other = new ValueTable();
+        other.intern(Value.create("string", TextNode.valueOf("a")));
+        Assert.assertEquals(bytes, other.ramBytesUsed());
+
+        // Values that were already interned hold no more memory.
+        values.intern("string", TextNode.valueOf("a"));
+        values.intern(Value.create("string", TextNode.valueOf("a")));
+        Assert.assertEquals(bytes, values.ramBytesUsed());
+
+        // A node that serializes to a value that was already interned holds no more memory either.
+        values.intern("number", IntNode.valueOf(1));
+        long numberBytes = values.ramBytesUsed();
+        values.intern("number", LongNode.valueOf(1));
+        Assert.assertEquals(numberBytes, values.ramBytesUsed());
+        values = new ValueTable();
+        values.intern("string", TextNode.valueOf("a"));
+
+        // Longer values hold more memory.
+        values.intern("string", TextNode.valueOf("b"));
+        Assert.assertEquals(bytes * 2, values.ramBytesUsed());
+        values.intern("string", TextNode.valueOf("cccccccccccccccccccccccccccccccc"));
+        Assert.assertTrue(values.ramBytesUsed() > bytes * 3);
+    }
+}
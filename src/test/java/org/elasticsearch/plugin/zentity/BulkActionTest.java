@@ -0,0 +1,269 @@
+/*
+ * zentity
+ * Copyright © 2018-2025 Dave Moore
+ * https://zentity.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.plugin.zentity;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.ReleasableBytesReference;
+import org.elasticsearch.common.io.stream.BytesStream;
+import org.elasticsearch.common.logging.LogConfigurator;
+import org.elasticsearch.core.Tuple;
+import org.elasticsearch.rest.ChunkedRestResponseBodyPart;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.transport.BytesRefRecycler;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BulkActionTest {
+
+    @BeforeClass
+    public static void setup() {
+        // Streaming responses log through the Elasticsearch logging facade, which is otherwise set up by the node.
+        LogConfigurator.configureESLogging();
+    }
+
+    private static List<Tuple<String, String>> readBulkEntries(String body) {
+        BulkAction.BulkEntries entries = BulkAction.readBulkEntries(new BytesArray(body));
+        List<Tuple<String, String>> list = new ArrayList<>();
+        entries.forEachRemaining(list::add);
+        Assert.assertEquals(entries.size(), list.size());
+        return list;
+    }
+
+    @Test
+    public void testReadBulkEntries() {
+        String body = "{\"a\":1}\n{\"b\":2}\r\n{}\n{\"d\":\"é\"}";
+        Assert.assertEquals(BulkAction.splitBulkEntries(body), readBulkEntries(body));
+        Assert.assertEquals(2, readBulkEntries(body).size());
+        Assert.assertEquals("{\"d\":\"é\"}", readBulkEntries(body).get(1).v2());
+    }
+
+    @Test
+    public void testReadBulkEntriesTrailingNewlines() {
+        String body = "{}\n{\"b\":2}\r\n\n\r\n";
+        Assert.assertEquals(BulkAction.splitBulkEntries(body), readBulkEntries(body));
+        Assert.assertEquals(1, readBulkEntries(body).size());
+    }
+
+    @Test
+    public void testReadBulkEntriesEmptyLines() {
+        String body = "{}\n\n{}\n{\"b\":2}\n";
+        Assert.assertEquals(BulkAction.splitBulkEntries(body), readBulkEntries(body));
+        Assert.assertEquals("", readBulkEntries(body).get(0).v2());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testReadBulkEntriesOddLines() {
+        readBulkEntries("{}\n{}\n{}\n");
+    }
+
+    /**
+     * The entries must still be readable after the request releases its body, such as when a streaming response is
+     * sent before every entry has been read. The body is released once the entries are closed.
+     */
+    @Test
+    public void testReadBulkEntriesRetainBody() {
+        AtomicBoolean released = new AtomicBoolean(false);
+        ReleasableBytesReference body = new ReleasableBytesReference(new BytesArray("{}\n{\"a\":1}\n{}\n{\"b\":2}"), () -> released.set(true));
+        BulkAction.BulkEntries entries = BulkAction.readBulkEntries(body);
+        Assert.assertEquals("{\"a\":1}", entries.next().v2());
+        body.decRef();
+        Assert.assertFalse(released.get());
+        Assert.assertEquals("{\"b\":2}", entries.next().v2());
+        entries.close();
+        Assert.assertTrue(released.get());
+        entries.close();
+        Assert.assertFalse(body.hasReferences());
+    }
+
+    /**
+     * A channel that holds the responses that are sent through it.
+     */
+    private static final class MockRestChannel implements RestChannel {
+        private final List<RestResponse> responses = new ArrayList<>();
+
+        @Override
+        public XContentBuilder newBuilder() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public XContentBuilder newErrorBuilder() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public XContentBuilder newBuilder(XContentType xContentType, boolean useFiltering) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public XContentBuilder newBuilder(XContentType xContentType, XContentType responseContentType, boolean useFiltering) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public XContentBuilder newBuilder(XContentType xContentType, XContentType responseContentType, boolean useFiltering, OutputStream out) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BytesStream bytesOutput() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void releaseOutputBuffer() {
+        }
+
+        @Override
+        public RestRequest request() {
+            return null;
+        }
+
+        @Override
+        public boolean detailedErrorsEnabled() {
+            return false;
+        }
+
+        @Override
+        public void sendResponse(RestResponse response) {
+            this.responses.add(response);
+        }
+    }
+
+    private static String readPart(ChunkedRestResponseBodyPart part) throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (!part.isPartComplete()) {
+            try (ReleasableBytesReference chunk = part.encodeChunk(1024, BytesRefRecycler.NON_RECYCLING_INSTANCE)) {
+                text.append(chunk.utf8ToString());
+            }
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void testBulkItemToJson() throws Exception {
+        BulkAction.SingleResult result = new BulkAction.SingleResult("{\n  \"took\" : 1\n}", true);
+        Assert.assertEquals("{\"item\":3,\"failed\":true,\"response\":{\"took\":1}}", BulkAction.bulkItemToJson(3, result));
+    }
+
+    @Test
+    public void testBulkResponseStream() throws Exception {
+        MockRestChannel channel = new MockRestChannel();
+        BulkAction.BulkResponseStream stream = new BulkAction.BulkResponseStream(channel);
+
+        // The response is sent with the first item to complete.
+        stream.onItem(1, new BulkAction.SingleResult("{\"a\":1}", false));
+        Assert.assertEquals(1, channel.responses.size());
+        Assert.assertTrue(channel.responses.get(0).isChunked());
+        ChunkedRestResponseBodyPart part = channel.responses.get(0).chunkedContent();
+        Assert.assertEquals("{\"item\":1,\"failed\":false,\"response\":{\"a\":1}}\n", readPart(part));
+        Assert.assertFalse(part.isLastPart());
+
+        // The next part waits for the next item to complete.
+        AtomicReference<ChunkedRestResponseBodyPart> nextPart = new AtomicReference<>();
+        part.getNextPart(ActionListener.wrap(nextPart::set, e -> Assert.fail()));
+        Assert.assertNull(nextPart.get());
+        stream.onItem(0, new BulkAction.SingleResult("{\"b\":2}", true));
+        part = nextPart.get();
+        Assert.assertEquals("{\"item\":0,\"failed\":true,\"response\":{\"b\":2}}\n", readPart(part));
+        Assert.assertFalse(part.isLastPart());
+
+        // The summary is the last part.
+        stream.onComplete(5);
+        nextPart.set(null);
+        part.getNextPart(ActionListener.wrap(nextPart::set, e -> Assert.fail()));
+        part = nextPart.get();
+        Assert.assertEquals("{\"took\":5,\"errors\":true,\"items\":2}\n", readPart(part));
+        Assert.assertTrue(part.isLastPart());
+        Assert.assertEquals(1, channel.responses.size());
+    }
+
+    @Test
+    public void testBulkResponseStreamWhenReady() throws Exception {
+        MockRestChannel channel = new MockRestChannel();
+        BulkAction.BulkResponseStream stream = new BulkAction.BulkResponseStream(channel);
+        stream.onItem(0, new BulkAction.SingleResult("{}", false));
+        ChunkedRestResponseBodyPart part = channel.responses.get(0).chunkedContent();
+        readPart(part);
+
+        // The next operation runs at once while the client keeps up.
+        AtomicBoolean ran = new AtomicBoolean(false);
+        stream.whenReady(() -> ran.set(true));
+        Assert.assertTrue(ran.get());
+
+        // The next operation waits while the client has not read the pending lines.
+        for (int i = 1; i <= BulkAction.BulkResponseStream.MAX_PENDING_LINES; i++)
+            stream.onItem(i, new BulkAction.SingleResult("{}", false));
+        ran.set(false);
+        stream.whenReady(() -> ran.set(true));
+        Assert.assertFalse(ran.get());
+
+        // The next operation runs when the client reads the next part.
+        AtomicReference<ChunkedRestResponseBodyPart> nextPart = new AtomicReference<>();
+        part.getNextPart(ActionListener.wrap(nextPart::set, e -> Assert.fail()));
+        Assert.assertNotNull(nextPart.get());
+        Assert.assertTrue(ran.get());
+
+        // Operations that wait when the response is closed run at once, and their lines are dropped.
+        for (int i = 1; i <= BulkAction.BulkResponseStream.MAX_PENDING_LINES; i++)
+            stream.onItem(i, new BulkAction.SingleResult("{}", false));
+        ran.set(false);
+        stream.whenReady(() -> ran.set(true));
+        Assert.assertFalse(ran.get());
+        stream.close();
+        Assert.assertTrue(ran.get());
+    }
+
+    @Test
+    public void testBulkResponseStreamFailureBeforeStart() throws Exception {
+        MockRestChannel channel = new MockRestChannel();
+        BulkAction.BulkResponseStream stream = new BulkAction.BulkResponseStream(channel);
+        Assert.assertFalse(stream.onFailure(new RuntimeException("failed")));
+        stream.onItem(0, new BulkAction.SingleResult("{}", false));
+        Assert.assertTrue(channel.responses.isEmpty());
+    }
+
+    @Test
+    public void testBulkResponseStreamFailureAfterStart() throws Exception {
+        MockRestChannel channel = new MockRestChannel();
+        BulkAction.BulkResponseStream stream = new BulkAction.BulkResponseStream(channel);
+        stream.onItem(0, new BulkAction.SingleResult("{}", false));
+        Assert.assertTrue(stream.onFailure(new RuntimeException("failed")));
+        ChunkedRestResponseBodyPart part = channel.responses.get(0).chunkedContent();
+        Assert.assertEquals("{\"item\":0,\"failed\":false,\"response\":{}}\n", readPart(part));
+        AtomicReference<ChunkedRestResponseBodyPart> nextPart = new AtomicReference<>();
+        part.getNextPart(ActionListener.wrap(nextPart::set, e -> Assert.fail()));
+        part = nextPart.get();
+        Assert.assertEquals("{\"errors\":true,\"error\":{\"type\":\"RuntimeException\",\"reason\":\"failed\"}}\n", readPart(part));
+        Assert.assertTrue(part.isLastPart());
+    }
+}
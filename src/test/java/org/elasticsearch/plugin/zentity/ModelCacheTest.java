@@ -0,0 +1,107 @@
+/*
+ * zentity
+ * Copyright © 2018-2025 Dave Moore
+ * https://zentity.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.plugin.zentity;
+
+import io.zentity.model.Model;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+import org.elasticsearch.common.Strings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class ModelCacheTest {
+
+    private static final String MODEL_A = "{\"attributes\":{\"name\":{}},\"resolvers\":{\"name\":{\"attributes\":[\"name\"]}},\"matchers\":{\"exact\":{\"clause\":{\"term\":{\"{{ field }}\":\"{{ value }}\"}}}},\"indices\":{\"index\":{\"fields\":{\"name\":{\"attribute\":\"name\",\"matcher\":\"exact\"}}}}}";
+    private static final String MODEL_B = "{\"attributes\":{\"name\":{},\"phone\":{}},\"resolvers\":{\"name\":{\"attributes\":[\"name\"]}},\"matchers\":{\"exact\":{\"clause\":{\"term\":{\"{{ field }}\":\"{{ value }}\"}}}},\"indices\":{\"index\":{\"fields\":{\"name\":{\"attribute\":\"name\",\"matcher\":\"exact\"}}}}}";
+
+    private static GetResponse response(String entityType, long seqNo, long primaryTerm, String source) {
+        return new GetResponse(new GetResult(ModelsAction.INDEX_NAME, entityType, seqNo, primaryTerm, 1, true, new BytesArray(source), Collections.emptyMap(), Collections.emptyMap()));
+    }
+
+    private static String stats(ModelCache cache) throws Exception {
+        XContentBuilder content = XContentFactory.jsonBuilder().startObject();
+        cache.stats(content);
+        return Strings.toString(content.endObject());
+    }
+
+    @Test
+    public void testGetReusesModelOfSameVersion() throws Exception {
+        ModelCache cache = new ModelCache(Settings.EMPTY);
+        Model model1 = cache.get("a", response("a", 0, 1, MODEL_A));
+        Model model2 = cache.get("a", response("a", 0, 1, MODEL_A));
+        Assert.assertSame(model1, model2);
+        Assert.assertEquals("{\"model_cache\":{\"enabled\":true,\"size\":1,\"hits\":1,\"misses\":1,\"evictions\":0}}", stats(cache));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testGetSharesUnmodifiableModel() throws Exception {
+        ModelCache cache = new ModelCache(Settings.EMPTY);
+        Model model1 = cache.get("a", response("a", 0, 1, MODEL_A));
+        Model model2 = cache.get("a", response("a", 0, 1, MODEL_A));
+        Assert.assertSame(model1, model2);
+        model1.indices().clear();
+    }
+
+    @Test
+    public void testGetParsesChangedModel() throws Exception {
+        ModelCache cache = new ModelCache(Settings.EMPTY);
+        Model model1 = cache.get("a", response("a", 0, 1, MODEL_A));
+        Assert.assertFalse(model1.attributes().containsKey("phone"));
+
+        // A new sequence number
+        Model model2 = cache.get("a", response("a", 1, 1, MODEL_B));
+        Assert.assertTrue(model2.attributes().containsKey("phone"));
+
+        // The same sequence number and primary term, such as after the index was recreated, but a different source
+        Model model3 = cache.get("a", response("a", 1, 1, MODEL_A));
+        Assert.assertFalse(model3.attributes().containsKey("phone"));
+        Assert.assertEquals("{\"model_cache\":{\"enabled\":true,\"size\":1,\"hits\":0,\"misses\":3,\"evictions\":0}}", stats(cache));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        ModelCache cache = new ModelCache(Settings.EMPTY);
+        cache.get("a", response("a", 0, 1, MODEL_A));
+        cache.invalidate("a");
+        cache.get("a", response("a", 0, 1, MODEL_A));
+        // Invalidations are counted as evictions by the underlying cache.
+        Assert.assertEquals("{\"model_cache\":{\"enabled\":true,\"size\":1,\"hits\":0,\"misses\":2,\"evictions\":1}}", stats(cache));
+    }
+
+    @Test
+    public void testSizeBound() throws Exception {
+        ModelCache cache = new ModelCache(Settings.builder().put(ModelCache.SIZE_SETTING.getKey(), 1).build());
+        cache.get("a", response("a", 0, 1, MODEL_A));
+        cache.get("b", response("b", 1, 1, MODEL_A));
+        Assert.assertEquals("{\"model_cache\":{\"enabled\":true,\"size\":1,\"hits\":0,\"misses\":2,\"evictions\":1}}", stats(cache));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        ModelCache cache = new ModelCache(Settings.builder().put(ModelCache.SIZE_SETTING.getKey(), 0).build());
+        cache.get("a", response("a", 0, 1, MODEL_A));
+        cache.get("a", response("a", 0, 1, MODEL_A));
+        Assert.assertEquals("{\"model_cache\":{\"enabled\":false,\"size\":0,\"hits\":0,\"misses\":0,\"evictions\":0}}", stats(cache));
+    }
+}
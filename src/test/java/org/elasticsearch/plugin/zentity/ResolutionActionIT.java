@@ -36,6 +36,7 @@ import org.junit.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
@@ -1578,6 +1579,209 @@ public class ResolutionActionIT extends AbstractIT {
         }
     }
 
+    @Test
+    public void testJobDeltaQueries() throws Exception {
+        String endpoint = "_zentity/resolution/zentity_test_entity_a";
+        Request postResolution = new Request("POST", endpoint);
+        postResolution.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+        Response response = client().performRequest(postResolution);
+        JsonNode json = Json.MAPPER.readTree(response.getEntity().getContent());
+
+        // Querying only the attribute values that are new to each hop must find the same docs in the same hops.
+        Request postResolutionDelta = new Request("POST", endpoint);
+        postResolutionDelta.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+        postResolutionDelta.addParameter("delta_queries", "true");
+        Response responseDelta = client().performRequest(postResolutionDelta);
+        JsonNode jsonDelta = Json.MAPPER.readTree(responseDelta.getEntity().getContent());
+        assertEquals(jsonDelta.get("hits").get("total").asInt(), 40);
+        assertEquals(getActual(json), getActual(jsonDelta));
+
+        // The same must hold when the queries match more docs than they may return, in which case the next query
+        // of the index must query the prior values too, to fetch the docs that matched them but were not returned.
+        for (String maxDocsPerQuery : List.of("1", "2")) {
+            Request postResolutionCapped = new Request("POST", endpoint);
+            postResolutionCapped.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+            postResolutionCapped.addParameter("max_docs_per_query", maxDocsPerQuery);
+            Response responseCapped = client().performRequest(postResolutionCapped);
+            JsonNode jsonCapped = Json.MAPPER.readTree(responseCapped.getEntity().getContent());
+            Request postResolutionCappedDelta = new Request("POST", endpoint);
+            postResolutionCappedDelta.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+            postResolutionCappedDelta.addParameter("max_docs_per_query", maxDocsPerQuery);
+            postResolutionCappedDelta.addParameter("delta_queries", "true");
+            Response responseCappedDelta = client().performRequest(postResolutionCappedDelta);
+            JsonNode jsonCappedDelta = Json.MAPPER.readTree(responseCappedDelta.getEntity().getContent());
+            assertEquals(getActual(jsonCapped), getActual(jsonCappedDelta));
+        }
+    }
+
+    @Test
+    public void testJobExcludeDocs() throws Exception {
+        String endpoint = "_zentity/resolution/zentity_test_entity_a";
+        Request postResolution = new Request("POST", endpoint);
+        postResolution.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+        Response response = client().performRequest(postResolution);
+        JsonNode json = Json.MAPPER.readTree(response.getEntity().getContent());
+
+        // Docs fetched in prior hops must not be returned again regardless of the strategy to exclude them.
+        for (String excludeDocs : List.of("all", "hop", "none")) {
+            Request postResolutionExcludeDocs = new Request("POST", endpoint);
+            postResolutionExcludeDocs.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+            postResolutionExcludeDocs.addParameter("exclude_docs", excludeDocs);
+            Response responseExcludeDocs = client().performRequest(postResolutionExcludeDocs);
+            JsonNode jsonExcludeDocs = Json.MAPPER.readTree(responseExcludeDocs.getEntity().getContent());
+            assertEquals(jsonExcludeDocs.get("hits").get("total").asInt(), 40);
+            assertEquals(getActual(json), getActual(jsonExcludeDocs));
+        }
+
+        // The same must hold when the queries match more docs than they may return, in which case the docs fetched
+        // in prior hops must not crowd out the docs that were not fetched yet.
+        for (String maxDocsPerQuery : List.of("1", "2")) {
+            Request postResolutionCapped = new Request("POST", endpoint);
+            postResolutionCapped.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+            postResolutionCapped.addParameter("max_docs_per_query", maxDocsPerQuery);
+            Response responseCapped = client().performRequest(postResolutionCapped);
+            JsonNode jsonCapped = Json.MAPPER.readTree(responseCapped.getEntity().getContent());
+            for (String excludeDocs : List.of("hop", "none")) {
+                Request postResolutionExcludeDocs = new Request("POST", endpoint);
+                postResolutionExcludeDocs.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+                postResolutionExcludeDocs.addParameter("max_docs_per_query", maxDocsPerQuery);
+                postResolutionExcludeDocs.addParameter("exclude_docs", excludeDocs);
+                Response responseExcludeDocs = client().performRequest(postResolutionExcludeDocs);
+                JsonNode jsonExcludeDocs = Json.MAPPER.readTree(responseExcludeDocs.getEntity().getContent());
+                assertEquals(getActual(jsonCapped), getActual(jsonExcludeDocs));
+            }
+        }
+
+        // The strategy must be recognized.
+        Request postResolutionInvalid = new Request("POST", endpoint);
+        postResolutionInvalid.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+        postResolutionInvalid.addParameter("exclude_docs", "some");
+        try {
+            client().performRequest(postResolutionInvalid);
+            fail("expected failure");
+        } catch (ResponseException e) {
+            assertEquals(e.getResponse().getStatusLine().getStatusCode(), 400);
+        }
+    }
+
+    @Test
+    public void testJobMaxDocsInvalid() throws Exception {
+        String endpoint = "_zentity/resolution/zentity_test_entity_a";
+
+        // The maximum number of docs must be a positive number, or -1 for no limit.
+        for (String maxDocs : List.of("0", "-2")) {
+            Request postResolutionInvalid = new Request("POST", endpoint);
+            postResolutionInvalid.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+            postResolutionInvalid.addParameter("max_docs", maxDocs);
+            try {
+                client().performRequest(postResolutionInvalid);
+                fail("expected failure");
+            } catch (ResponseException e) {
+                assertEquals(e.getResponse().getStatusLine().getStatusCode(), 400);
+            }
+        }
+    }
+
+    @Test
+    public void testJobMaxTimeInvalid() throws Exception {
+        String endpoint = "_zentity/resolution/zentity_test_entity_a";
+
+        // The time budget must be positive.
+        for (String maxTime : List.of("0s", "-1", "-5s")) {
+            Request postResolutionInvalid = new Request("POST", endpoint);
+            postResolutionInvalid.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+            postResolutionInvalid.addParameter("max_time", maxTime);
+            try {
+                client().performRequest(postResolutionInvalid);
+                fail("expected failure");
+            } catch (ResponseException e) {
+                assertEquals(e.getResponse().getStatusLine().getStatusCode(), 400);
+            }
+        }
+    }
+
+    @Test
+    public void testJobSearchParallel() throws Exception {
+        String endpoint = "_zentity/resolution/zentity_test_entity_a";
+        Request postResolution = new Request("POST", endpoint);
+        postResolution.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+        postResolution.addParameter("_explanation", "true");
+        postResolution.addParameter("_score", "true");
+        Response response = client().performRequest(postResolution);
+        JsonNode json = Json.MAPPER.readTree(response.getEntity().getContent());
+
+        // Submitting the queries of each hop concurrently must return the same hits in the same order.
+        for (String maxConcurrentSearches : List.of("1", "2", "100")) {
+            Request postResolutionParallel = new Request("POST", endpoint);
+            postResolutionParallel.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+            postResolutionParallel.addParameter("_explanation", "true");
+            postResolutionParallel.addParameter("_score", "true");
+            postResolutionParallel.addParameter("search.parallel", "true");
+            postResolutionParallel.addParameter("search.max_concurrent_searches", maxConcurrentSearches);
+            Response responseParallel = client().performRequest(postResolutionParallel);
+            JsonNode jsonParallel = Json.MAPPER.readTree(responseParallel.getEntity().getContent());
+            assertEquals(json.get("hits"), jsonParallel.get("hits"));
+        }
+
+        // The maximum number of concurrent searches must be a positive number.
+        Request postResolutionInvalid = new Request("POST", endpoint);
+        postResolutionInvalid.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+        postResolutionInvalid.addParameter("search.parallel", "true");
+        postResolutionInvalid.addParameter("search.max_concurrent_searches", "0");
+        try {
+            client().performRequest(postResolutionInvalid);
+            fail("expected failure");
+        } catch (ResponseException e) {
+            assertEquals(e.getResponse().getStatusLine().getStatusCode(), 400);
+        }
+    }
+
+    @Test
+    public void testJobSearchMsearch() throws Exception {
+        String endpoint = "_zentity/resolution/zentity_test_entity_a";
+        Request postResolution = new Request("POST", endpoint);
+        postResolution.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+        postResolution.addParameter("_explanation", "true");
+        postResolution.addParameter("_score", "true");
+        Response response = client().performRequest(postResolution);
+        JsonNode json = Json.MAPPER.readTree(response.getEntity().getContent());
+
+        // Submitting the queries of each hop in a single multi search request must return the same hits in the same order.
+        for (String maxConcurrentSearches : List.of("1", "100")) {
+            Request postResolutionMsearch = new Request("POST", endpoint);
+            postResolutionMsearch.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+            postResolutionMsearch.addParameter("_explanation", "true");
+            postResolutionMsearch.addParameter("_score", "true");
+            postResolutionMsearch.addParameter("search.msearch", "true");
+            postResolutionMsearch.addParameter("search.max_concurrent_searches", maxConcurrentSearches);
+            Response responseMsearch = client().performRequest(postResolutionMsearch);
+            JsonNode jsonMsearch = Json.MAPPER.readTree(responseMsearch.getEntity().getContent());
+            assertEquals(json.get("hits"), jsonMsearch.get("hits"));
+        }
+    }
+
+    @Test
+    public void testJobSearchPaginate() throws Exception {
+        String endpoint = "_zentity/resolution/zentity_test_entity_a";
+        Request postResolution = new Request("POST", endpoint);
+        postResolution.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+        Response response = client().performRequest(postResolution);
+        JsonNode json = Json.MAPPER.readTree(response.getEntity().getContent());
+
+        // Paging through every match of each query must return the same docs in the same hops,
+        // even if each page is smaller than the number of matches.
+        for (String maxDocsPerQuery : List.of("1", "3", "1000")) {
+            Request postResolutionPaginate = new Request("POST", endpoint);
+            postResolutionPaginate.setEntity(TEST_PAYLOAD_JOB_NO_SCOPE);
+            postResolutionPaginate.addParameter("search.paginate", "true");
+            postResolutionPaginate.addParameter("max_docs_per_query", maxDocsPerQuery);
+            Response responsePaginate = client().performRequest(postResolutionPaginate);
+            JsonNode jsonPaginate = Json.MAPPER.readTree(responsePaginate.getEntity().getContent());
+            assertEquals(jsonPaginate.get("hits").get("total").asInt(), 40);
+            assertEquals(getActual(json), getActual(jsonPaginate));
+        }
+    }
+
     @Test
     public void testJobScore() throws Exception {
         String endpoint = "_zentity/resolution/zentity_test_entity_a";
@@ -1911,6 +2115,87 @@ public class ResolutionActionIT extends AbstractIT {
         assertTrue(firstExplanationHit.has("_explanation"));
     }
 
+    @Test
+    public void testBulkResolutionStream() throws Exception {
+        String endpoint = "_zentity/resolution/zentity_test_entity_a/_bulk";
+        Request req = new Request("POST", endpoint);
+        String[] reqBodyLines = new String[]{
+            "{\"_source\": false}", // override source
+            TEST_PAYLOAD_JOB_TERMS_JSON,
+            "{\"_explanation\": true}", // override explanation
+            TEST_PAYLOAD_JOB_EXPLANATION_JSON
+        };
+        String reqBody = Strings.join(reqBodyLines, "\n");
+        req.setEntity(new NStringEntity(reqBody, NDJSON_TYPE));
+        req.addParameter("_explanation", "false");
+        req.addParameter("_source", "true");
+        req.addParameter("pretty", "true");
+        req.addParameter("stream", "true");
+
+        Response response = client().performRequest(req);
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+        assertTrue(response.getEntity().getContentType().getValue().startsWith("application/x-ndjson"));
+
+        // One line per job, in the order in which the jobs completed, followed by the summary.
+        String[] lines = IOUtils.toString(response.getEntity().getContent(), Consts.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        JsonNode[] items = new JsonNode[2];
+        for (int i = 0; i < 2; i++) {
+            JsonNode line = Json.ORDERED_MAPPER.readTree(lines[i]);
+            assertFalse(line.get("failed").booleanValue());
+            items[line.get("item").asInt()] = line.get("response");
+        }
+
+        JsonNode firstTermHit = items[0].get("hits").get("hits").get(0);
+        assertFalse(firstTermHit.has("_source"));
+        assertFalse(firstTermHit.has("_explanation"));
+
+        JsonNode firstExplanationHit = items[1].get("hits").get("hits").get(0);
+        assertTrue(firstExplanationHit.has("_source"));
+        assertTrue(firstExplanationHit.has("_explanation"));
+
+        JsonNode summary = Json.ORDERED_MAPPER.readTree(lines[2]);
+        assertFalse(summary.get("errors").booleanValue());
+        assertTrue(summary.get("took").asLong() >= 0);
+        assertEquals(2, summary.get("items").asInt());
+    }
+
+    @Test
+    public void testBulkResolutionStreamManyItems() throws Exception {
+        String endpoint = "_zentity/resolution/zentity_test_entity_a/_bulk";
+        Request req = new Request("POST", endpoint);
+
+        // More items than the jobs that run at once, so that items are read after the response starts to be sent.
+        int size = 250;
+        List<String> reqBodyLines = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            reqBodyLines.add("{\"_source\": false}");
+            reqBodyLines.add(TEST_PAYLOAD_JOB_TERMS_JSON);
+        }
+        req.setEntity(new NStringEntity(String.join("\n", reqBodyLines), NDJSON_TYPE));
+        req.addParameter("stream", "true");
+
+        Response response = client().performRequest(req);
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+
+        // Every job must read its own entry and return the same hits.
+        String[] lines = IOUtils.toString(response.getEntity().getContent(), Consts.UTF_8).split("\n");
+        assertEquals(size + 1, lines.length);
+        JsonNode[] items = new JsonNode[size];
+        for (int i = 0; i < size; i++) {
+            JsonNode line = Json.ORDERED_MAPPER.readTree(lines[i]);
+            assertFalse(line.get("failed").booleanValue());
+            assertNull(items[line.get("item").asInt()]);
+            items[line.get("item").asInt()] = line.get("response");
+        }
+        for (JsonNode item : items)
+            assertEquals(items[0].get("hits"), item.get("hits"));
+
+        JsonNode summary = Json.ORDERED_MAPPER.readTree(lines[size]);
+        assertFalse(summary.get("errors").booleanValue());
+        assertEquals(size, summary.get("items").asInt());
+    }
+
     @Test
     public void testBulkResolutionOverrideEntityType() throws Exception {
         String endpoint = "_zentity/resolution/zentity_test_entity_b/_bulk";